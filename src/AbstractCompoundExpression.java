@@ -28,8 +28,17 @@ public abstract class AbstractCompoundExpression implements Expression {
         return conv;
     }
 
+    public int size(){
+        if (_rightChild == null) return 1 + _leftChild.size();
+        return 1 + _leftChild.size() + _rightChild.size();
+    }
+
     public Expression differentiate(){
-        Expression diffExpression = _derivativeExpressor.derive(_leftChild, _rightChild);
+        return differentiate(0);
+    }
+
+    public Expression differentiate(int slot){
+        Expression diffExpression = _derivativeExpressor.derive(_leftChild, _rightChild, slot);
         return diffExpression;
     }
 
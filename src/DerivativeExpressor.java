@@ -1,7 +1,8 @@
 /**
  * An interface to define the derivate of an expression
+ * with respect to the variable in a given slot
  * for lambda functions and anonymous classes
  */
 public interface DerivativeExpressor {
-    public Expression derive(Expression exp1, Expression exp2);
+    public Expression derive(Expression exp1, Expression exp2, int slot);
 }
@@ -22,6 +22,20 @@ public class DoubleSidedExpression extends AbstractCompoundExpression implements
         return accu;
     }
 
+    public double evaluate(double[] env){
+        double accu = _evaluateExpressor.signMethod(_leftChild.evaluate(env), _rightChild.evaluate(env));
+        return accu;
+    }
+
+    public void evaluate(double[][] columns, double[] out){
+        double[] right = new double[out.length];
+        _leftChild.evaluate(columns, out);
+        _rightChild.evaluate(columns, right);
+        for (int i = 0; i < out.length; ++i){
+            out[i] = _evaluateExpressor.signMethod(out[i], right[i]);
+        }
+    }
+
 
     
 }
@@ -0,0 +1,59 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * A blocking client for EvaluationServer. One client holds one connection
+ * and sends one request at a time over it.
+ */
+public class EvaluationClient implements Closeable {
+	private final Socket _socket;
+	private final DataInputStream _in;
+	private final DataOutputStream _out;
+
+	public EvaluationClient(int port) throws IOException {
+		_socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		_socket.setTcpNoDelay(true);
+		_in = new DataInputStream(new BufferedInputStream(_socket.getInputStream()));
+		_out = new DataOutputStream(new BufferedOutputStream(_socket.getOutputStream()));
+	}
+
+	/**
+	 * Registers the expression with the server.
+	 * Throws a ExpressionParseException if the server cannot parse it.
+	 * @param expression the expression, in SimpleExpressionParser's grammar
+	 * @return the handle to evaluate the expression with
+	 */
+	public int register(String expression) throws IOException, ExpressionParseException {
+		_out.writeByte(EvaluationServer.OP_REGISTER);
+		_out.writeUTF(expression);
+		_out.flush();
+		if (_in.readByte() != EvaluationServer.STATUS_OK) throw new ExpressionParseException(_in.readUTF());
+		return _in.readInt();
+	}
+
+	/**
+	 * Evaluates a registered expression at every given x.
+	 * @param handle the handle returned by register()
+	 * @param xs the values of the independent variable x
+	 * @return the value of the expression at each x
+	 */
+	public double[] evaluate(int handle, double[] xs) throws IOException {
+		_out.writeByte(EvaluationServer.OP_EVALUATE);
+		_out.writeInt(handle);
+		_out.writeInt(xs.length);
+		for (double x : xs) {
+			_out.writeDouble(x);
+		}
+		_out.flush();
+		if (_in.readByte() != EvaluationServer.STATUS_OK) throw new IOException(_in.readUTF());
+		final double[] ys = new double[_in.readInt()];
+		for (int i = 0; i < ys.length; ++i) {
+			ys[i] = _in.readDouble();
+		}
+		return ys;
+	}
+
+	public void close() throws IOException {
+		_socket.close();
+	}
+}
@@ -0,0 +1,66 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Drives an EvaluationServer from several concurrent clients and reports
+ * the throughput and latency percentiles of the evaluate requests.
+ * Usage: EvaluationLoadGenerator [port] [clients] [requestsPerClient] [batchSize] [expression]
+ */
+public class EvaluationLoadGenerator {
+	protected static final String DEFAULT_EXPRESSION = "2*x+5*x*x";
+	protected static final double MIN_X = -10, MAX_X = +10;
+
+	public static void main (String[] args) throws Exception {
+		final int port = args.length > 0 ? Integer.parseInt(args[0]) : EvaluationServer.DEFAULT_PORT;
+		final int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+		final int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		final String expression = args.length > 4 ? args[4] : DEFAULT_EXPRESSION;
+
+		final ExecutorService pool = Executors.newFixedThreadPool(clients);
+		final List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		final long start = System.nanoTime();
+		for (int c = 0; c < clients; ++c) {
+			final long seed = c;
+			results.add(pool.submit(() -> runClient(port, expression, requests, batchSize, seed)));
+		}
+		final long[] latencies = new long[clients * requests];
+		int count = 0;
+		for (Future<long[]> result : results) {
+			final long[] clientLatencies = result.get();
+			System.arraycopy(clientLatencies, 0, latencies, count, clientLatencies.length);
+			count += clientLatencies.length;
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		Arrays.sort(latencies);
+		System.out.printf("requests: %d, points: %d, time: %.3f s%n", latencies.length, (long) latencies.length * batchSize, seconds);
+		System.out.printf("throughput: %.0f requests/s, %.0f points/s%n", latencies.length / seconds, latencies.length * (double) batchSize / seconds);
+		System.out.printf("latency p50: %.1f us, p99: %.1f us, max: %.1f us%n",
+			percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3, latencies[latencies.length - 1] / 1e3);
+	}
+
+	private static long[] runClient(int port, String expression, int requests, int batchSize, long seed) throws Exception {
+		final Random random = new Random(seed);
+		final long[] latencies = new long[requests];
+		try (EvaluationClient client = new EvaluationClient(port)) {
+			final int handle = client.register(expression);
+			final double[] xs = new double[batchSize];
+			for (int r = 0; r < requests; ++r) {
+				for (int i = 0; i < batchSize; ++i) {
+					xs[i] = MIN_X + random.nextDouble() * (MAX_X - MIN_X);
+				}
+				final long begin = System.nanoTime();
+				client.evaluate(handle, xs);
+				latencies[r] = System.nanoTime() - begin;
+			}
+		}
+		return latencies;
+	}
+
+	private static long percentile(long[] sorted, double p){
+		final int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+}
@@ -0,0 +1,323 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A local evaluation service, so that several processes can share one parser
+ * and one set of warm expressions instead of each embedding their own.
+ * Clients register an expression once and get back a handle, then send batches
+ * of x values for that handle and get back the packed double results.
+ *
+ * Protocol (all values in DataOutputStream byte order), one request at a time per connection:
+ * REGISTER: byte OP_REGISTER, UTF expression        -> byte STATUS_OK, int handle
+ * EVALUATE: byte OP_EVALUATE, int handle, int n, n doubles -> byte STATUS_OK, int n, n doubles
+ * Any request can instead be answered with byte STATUS_ERROR, UTF message. After an unknown
+ * operation the server cannot tell where the next request starts, so it answers with
+ * STATUS_ERROR and then closes the connection.
+ *
+ * Parsed expressions are kept in a bounded LRU cache keyed by their text; a handle
+ * stays valid after its expression is evicted, it is simply parsed again on its next use.
+ * The handles themselves are bounded too: once there are more than the handle limit, the
+ * least recently used handle is dropped, and evaluating it is answered with an error until
+ * the client registers the expression again.
+ * Evaluation requests from all connections go through one queue, and requests for the
+ * same handle that are waiting together are merged into a single batch evaluation.
+ * The dispatcher that drains the queue runs from construction until close().
+ */
+public class EvaluationServer {
+	public static final byte OP_REGISTER = 1, OP_EVALUATE = 2;
+	public static final byte STATUS_OK = 0, STATUS_ERROR = 1;
+	public static final int DEFAULT_PORT = 7070;
+	public static final int DEFAULT_CACHE_SIZE = 256;
+	public static final int DEFAULT_HANDLE_LIMIT = 1 << 16;
+	public static final int MAX_BATCH_POINTS = 1 << 14;
+	public static final int MAX_REQUEST_POINTS = 1 << 20;
+
+	private final ExpressionParser _parser = new SimpleExpressionParser();
+	// Both maps are guarded by _handles, which drops its least recently used handle past the limit
+	private final Map<Integer, String> _handles;
+	private final Map<String, Integer> _handlesByText = new HashMap<String, Integer>();
+	private final AtomicInteger _nextHandle = new AtomicInteger(1);
+	private final Map<String, Expression> _cache;
+
+	private final BlockingQueue<PendingEvaluation> _queue = new LinkedBlockingQueue<PendingEvaluation>();
+	private final ExecutorService _workers;
+	private final ExecutorService _connections = Executors.newCachedThreadPool();
+	private final ServerSocket _serverSocket;
+	private final Thread _dispatcher;
+	private volatile boolean _running = true;
+
+	/**
+	 * One client request waiting to be evaluated as part of a batch.
+	 */
+	private static class PendingEvaluation {
+		final int _handle;
+		final double[] _xs;
+		final CompletableFuture<double[]> _result = new CompletableFuture<double[]>();
+
+		PendingEvaluation(int handle, double[] xs){
+			_handle = handle;
+			_xs = xs;
+		}
+	}
+
+	public EvaluationServer(int port, int cacheSize, int workerCount) throws IOException {
+		this(port, cacheSize, DEFAULT_HANDLE_LIMIT, workerCount);
+	}
+
+	public EvaluationServer(int port, final int cacheSize, final int handleLimit, int workerCount) throws IOException {
+		_handles = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest){
+				if (size() <= handleLimit) return false;
+				_handlesByText.remove(eldest.getValue());
+				return true;
+			}
+		};
+		_cache = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest){
+				return size() > cacheSize;
+			}
+		};
+		_workers = Executors.newFixedThreadPool(workerCount);
+		_serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		_dispatcher = new Thread(this::dispatch, "evaluation-dispatcher");
+		_dispatcher.setDaemon(true);
+		_dispatcher.start();
+	}
+
+	public int getPort(){
+		return _serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until close() is called.
+	 */
+	public void serve(){
+		while (_running) {
+			try {
+				final Socket socket = _serverSocket.accept();
+				_connections.execute(() -> handleConnection(socket));
+			} catch (IOException ioe) {
+				if (_running) ioe.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections, stops the dispatcher and the workers,
+	 * and fails every evaluation that is still waiting.
+	 */
+	public void close() throws IOException {
+		_running = false;
+		_dispatcher.interrupt();
+		_serverSocket.close();
+		_connections.shutdownNow();
+		_workers.shutdownNow();
+		try {
+			_dispatcher.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		failWaiting();
+	}
+
+	private void failWaiting(){
+		final List<PendingEvaluation> waiting = new ArrayList<PendingEvaluation>();
+		_queue.drainTo(waiting);
+		for (PendingEvaluation pending : waiting) {
+			pending._result.completeExceptionally(new IllegalStateException("Evaluation server closed"));
+		}
+	}
+
+	/**
+	 * Returns the handle for the given expression text, registering it if it is new.
+	 * The expression is parsed right away so that malformed input is rejected at registration.
+	 */
+	public int register(String text) throws ExpressionParseException {
+		synchronized (_handles) {
+			final Integer existing = _handlesByText.get(text);
+			if (existing != null) {
+				_handles.get(existing);
+				return existing;
+			}
+		}
+		lookup(text);
+		synchronized (_handles) {
+			Integer handle = _handlesByText.get(text);
+			if (handle == null) {
+				handle = _nextHandle.getAndIncrement();
+				_handles.put(handle, text);
+				_handlesByText.put(text, handle);
+			}
+			return handle;
+		}
+	}
+
+	private String textOf(int handle){
+		synchronized (_handles) {
+			return _handles.get(handle);
+		}
+	}
+
+	/**
+	 * Queues the x values for evaluation and returns a future holding the results.
+	 */
+	public CompletableFuture<double[]> evaluate(int handle, double[] xs){
+		final PendingEvaluation pending = new PendingEvaluation(handle, xs);
+		_queue.add(pending);
+		// close() may have drained the queue just before this request was added
+		if (!_running) failWaiting();
+		return pending._result;
+	}
+
+	private Expression lookup(String text) throws ExpressionParseException {
+		synchronized (_cache) {
+			final Expression cached = _cache.get(text);
+			if (cached != null) return cached;
+		}
+		final Expression expression = _parser.parse(text);
+		synchronized (_cache) {
+			_cache.put(text, expression);
+		}
+		return expression;
+	}
+
+	/**
+	 * Takes waiting requests off the queue, groups them by handle and hands
+	 * each group to the worker pool as one batch.
+	 */
+	private void dispatch(){
+		final List<PendingEvaluation> drained = new ArrayList<PendingEvaluation>();
+		while (_running) {
+			try {
+				drained.add(_queue.take());
+			} catch (InterruptedException ie) {
+				return;
+			}
+			_queue.drainTo(drained);
+
+			final Map<Integer, List<PendingEvaluation>> groups = new HashMap<Integer, List<PendingEvaluation>>();
+			final Map<Integer, Integer> groupPoints = new HashMap<Integer, Integer>();
+			for (PendingEvaluation pending : drained) {
+				List<PendingEvaluation> group = groups.get(pending._handle);
+				final int points = group == null ? 0 : groupPoints.get(pending._handle);
+				if (group == null || points + pending._xs.length > MAX_BATCH_POINTS) {
+					if (group != null) submit(group, points);
+					group = new ArrayList<PendingEvaluation>();
+					groups.put(pending._handle, group);
+					groupPoints.put(pending._handle, pending._xs.length);
+				} else {
+					groupPoints.put(pending._handle, points + pending._xs.length);
+				}
+				group.add(pending);
+			}
+			for (Map.Entry<Integer, List<PendingEvaluation>> group : groups.entrySet()) {
+				submit(group.getValue(), groupPoints.get(group.getKey()));
+			}
+			drained.clear();
+		}
+	}
+
+	private void submit(final List<PendingEvaluation> group, final int points){
+		_workers.execute(() -> evaluateGroup(group, points));
+	}
+
+	private void evaluateGroup(List<PendingEvaluation> group, int points){
+		try {
+			final String text = textOf(group.get(0)._handle);
+			if (text == null) throw new IllegalArgumentException("Unknown or expired handle: " + group.get(0)._handle + "; register the expression again");
+			final Expression expression = lookup(text);
+
+			final double[] xs = new double[points];
+			int offset = 0;
+			for (PendingEvaluation pending : group) {
+				System.arraycopy(pending._xs, 0, xs, offset, pending._xs.length);
+				offset += pending._xs.length;
+			}
+			final double[] ys = new double[xs.length];
+			expression.evaluate(new double[][] { xs }, ys);
+
+			offset = 0;
+			for (PendingEvaluation pending : group) {
+				pending._result.complete(Arrays.copyOfRange(ys, offset, offset + pending._xs.length));
+				offset += pending._xs.length;
+			}
+		} catch (Exception e) {
+			for (PendingEvaluation pending : group) {
+				pending._result.completeExceptionally(e);
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket){
+		try (Socket s = socket;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+			s.setTcpNoDelay(true);
+			while (true) {
+				final int op = in.read();
+				if (op < 0) return;
+				try {
+					if (op == OP_REGISTER) {
+						final int handle = register(in.readUTF());
+						out.writeByte(STATUS_OK);
+						out.writeInt(handle);
+					} else if (op == OP_EVALUATE) {
+						final int handle = in.readInt();
+						final int count = in.readInt();
+						if (count < 0 || count > MAX_REQUEST_POINTS) {
+							// Skip whatever values were sent, so that the next request starts in the right place
+							for (long remaining = count > 0 ? (long) count * Double.BYTES : 0; remaining > 0; ) {
+								final int skipped = in.skipBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+								if (skipped <= 0) throw new EOFException();
+								remaining -= skipped;
+							}
+							out.writeByte(STATUS_ERROR);
+							out.writeUTF("Batch size " + count + " is not between 0 and " + MAX_REQUEST_POINTS);
+						} else {
+							final double[] xs = new double[count];
+							for (int i = 0; i < xs.length; ++i) {
+								xs[i] = in.readDouble();
+							}
+							final double[] ys = evaluate(handle, xs).get();
+							out.writeByte(STATUS_OK);
+							out.writeInt(ys.length);
+							for (double y : ys) {
+								out.writeDouble(y);
+							}
+						}
+					} else {
+						out.writeByte(STATUS_ERROR);
+						out.writeUTF("Unknown operation: " + op);
+						out.flush();
+						return;
+					}
+				} catch (ExpressionParseException | ExecutionException e) {
+					final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					out.writeByte(STATUS_ERROR);
+					out.writeUTF(String.valueOf(cause.getMessage()));
+				}
+				out.flush();
+			}
+		} catch (IOException ioe) {
+			// The client went away; nothing left to answer.
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Usage: EvaluationServer [port] [cacheSize] [workers] [handleLimit]
+	 */
+	public static void main (String[] args) throws IOException {
+		final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		final int cacheSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CACHE_SIZE;
+		final int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final int handleLimit = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_HANDLE_LIMIT;
+		final EvaluationServer server = new EvaluationServer(port, cacheSize, handleLimit, workers);
+		System.out.println("Evaluation server listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort());
+		server.serve();
+	}
+}
@@ -22,6 +22,12 @@ interface Expression {
 	 */
 	public String convertToString (int indentLevel);
 
+	/**
+	 * Counts the nodes of the expression tree rooted at this node, including this node.
+	 * @return the number of nodes
+	 */
+	public int size ();
+
 	/**
 	 * Given the value of the independent variable x, compute the value of this expression.
 	 * @param x the value of the independent variable x
@@ -29,10 +35,36 @@ interface Expression {
 	 */
 	public double evaluate (double x);
 
+	/**
+	 * Given the values of all variables, compute the value of this expression.
+	 * Every variable was assigned a slot index when the expression was parsed, so
+	 * env[i] is the value of the variable in slot i.
+	 * @param env the value of each variable, indexed by slot
+	 * @return the value of this expression.
+	 */
+	public double evaluate (double[] env);
+
+	/**
+	 * Compute the value of this expression for a whole batch of variable bindings.
+	 * columns[i] holds the values of the variable in slot i, one per row of the batch.
+	 * @param columns the values of each variable, indexed by slot and then by row
+	 * @param out receives the value of this expression for each row; its length is the batch size
+	 */
+	public void evaluate (double[][] columns, double[] out);
+
 	/**
 	 * Produce a new, fully independent (i.e., there should be no shared subtrees) Expression
 	 * representing the derivative of this expression.
 	 * @return the derivative of this expression
 	 */
 	public Expression differentiate ();
+
+	/**
+	 * Produce a new, fully independent Expression representing the partial derivative
+	 * of this expression with respect to the variable in the given slot.
+	 * differentiate() is the same as differentiate(0).
+	 * @param slot the slot index of the variable to differentiate with respect to
+	 * @return the partial derivative of this expression
+	 */
+	public Expression differentiate (int slot);
 }
@@ -0,0 +1,352 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Computes definite integrals of an Expression over x with adaptive quadrature.
+ * An interval whose error estimate is above its share of the tolerance is split in two,
+ * and the two halves are integrated in parallel on a fork/join pool. Each quadrature
+ * step evaluates all of its abscissae in one batch through Expression.evaluate(double[][], double[]).
+ *
+ * Singularities show up as values that are not finite (e.g. division by 0 in a DExpression,
+ * or log of 0). Gauss-Kronrod never evaluates the end points of an interval, so integrable
+ * end point singularities are handled by subdividing towards them, and an interval that hits
+ * a single singular point is split around it. Near the point the abscissae of a narrow interval
+ * round onto it, so they count as one point however many of them land there. Once such an
+ * interval cannot be split any further, the abscissae on the point are left out of its rule,
+ * and their weight times the largest value left is added to its error estimate. Simpson's
+ * rule hands any interval with such a value over to Gauss-Kronrod. If the expression is not
+ * finite at several distinct abscissae of a splittable interval (e.g. log of a negative
+ * number), integrate throws an UnsupportedOperationException.
+ */
+public class ExpressionIntegrator {
+	public enum Rule { SIMPSON, GAUSS_KRONROD }
+
+	public static final double DEFAULT_TOLERANCE = 1e-10;
+	public static final int DEFAULT_MAX_DEPTH = 50;
+	public static final long DEFAULT_MAX_EVALUATIONS = 10000000;
+	// Error estimates below this fraction of the value are rounding noise, so the interval is not split further
+	protected static final double ROUNDOFF = 50 * Math.ulp(1.0);
+	// Below this depth, subintervals are forked; deeper ones are integrated by the current thread
+	protected static final int FORK_DEPTH = 12;
+
+	// Kronrod 15 point nodes and weights on [-1, 1]; the odd indices are the 7 point Gauss nodes
+	private static final double[] XGK = {
+		0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+		0.864864423359769072789712788640926, 0.741531185599394439863864773280788,
+		0.586087235467691130294144845693013, 0.405845151377397166906606412076961,
+		0.207784955007898467600689403773245, 0.000000000000000000000000000000000 };
+	private static final double[] WGK = {
+		0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+		0.104790010322250183839876322541518, 0.140653259715525918745189590510238,
+		0.169004726639267902826583426598550, 0.190350578064785409913256402421014,
+		0.204432940075298892414161999234649, 0.209482141084727828012999174891714 };
+	private static final double[] WG = {
+		0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+		0.381830050505118944950369775488975, 0.417959183673469387755102040816327 };
+
+	private final ForkJoinPool _pool;
+	private final double _tolerance;
+	private final int _maxDepth;
+	private final long _maxEvaluations;
+
+	/**
+	 * The result of an integration: the value, the estimated absolute error,
+	 * and how much work it took to get there.
+	 */
+	public static class Integral {
+		private final double _value;
+		private final double _error;
+		private final long _evaluations;
+		private final long _intervals;
+		private final boolean _converged;
+
+		public Integral(double value, double error, long evaluations, long intervals, boolean converged){
+			_value = value;
+			_error = error;
+			_evaluations = evaluations;
+			_intervals = intervals;
+			_converged = converged;
+		}
+
+		public double getValue(){ return _value; }
+		public double getError(){ return _error; }
+		public long getEvaluations(){ return _evaluations; }
+		public long getIntervals(){ return _intervals; }
+
+		/**
+		 * @return false if some subinterval ran out of depth or evaluations before reaching its tolerance
+		 */
+		public boolean isConverged(){ return _converged; }
+
+		public String toString(){
+			return _value + " +/- " + _error + " (" + _evaluations + " evaluations, " + _intervals + " intervals"
+				+ (_converged ? "" : ", not converged") + ")";
+		}
+	}
+
+	public ExpressionIntegrator(){
+		this(ForkJoinPool.commonPool(), DEFAULT_TOLERANCE, DEFAULT_MAX_DEPTH, DEFAULT_MAX_EVALUATIONS);
+	}
+
+	/**
+	 * @param pool the pool that subintervals are integrated on
+	 * @param tolerance the absolute error to aim for
+	 * @param maxDepth how many times an interval may be halved
+	 * @param maxEvaluations once this many evaluations are spent, intervals are no longer split
+	 */
+	public ExpressionIntegrator(ForkJoinPool pool, double tolerance, int maxDepth, long maxEvaluations){
+		_pool = pool;
+		_tolerance = tolerance;
+		_maxDepth = maxDepth;
+		_maxEvaluations = maxEvaluations;
+	}
+
+	/**
+	 * Integrates the expression over x from a to b with Gauss-Kronrod quadrature.
+	 */
+	public Integral integrate(Expression expression, double a, double b){
+		return integrate(expression, a, b, Rule.GAUSS_KRONROD);
+	}
+
+	/**
+	 * Integrates the expression over x from a to b with the given rule.
+	 * Throws an UnsupportedOperationException if the expression is not finite
+	 * somewhere that cannot be integrated around.
+	 * @param expression the integrand
+	 * @param a the lower bound
+	 * @param b the upper bound
+	 * @param rule the quadrature rule to use
+	 * @return the value of the integral and its error estimate
+	 */
+	public Integral integrate(Expression expression, double a, double b, Rule rule){
+		if (a == b) return new Integral(0, 0, 0, 0, true);
+		if (a > b) {
+			final Integral flipped = integrate(expression, b, a, rule);
+			return new Integral(-flipped._value, flipped._error, flipped._evaluations, flipped._intervals, flipped._converged);
+		}
+
+		final Integration integration = new Integration(expression);
+		final Estimate estimate;
+		try {
+			if (rule == Rule.SIMPSON) {
+				final double[] fs = integration.evaluate(new double[] { a, 0.5 * (a + b), b });
+				if (isFinite(fs)) {
+					final double whole = (b - a) / 6 * (fs[0] + 4 * fs[1] + fs[2]);
+					estimate = _pool.invoke(integration.new SimpsonTask(a, b, fs[0], fs[1], fs[2], whole, _tolerance, 0));
+				} else {
+					estimate = _pool.invoke(integration.new GaussKronrodTask(a, b, _tolerance, 0));
+				}
+			} else {
+				estimate = _pool.invoke(integration.new GaussKronrodTask(a, b, _tolerance, 0));
+			}
+		} catch (UnsupportedOperationException uoe) {
+			// Exceptions from forked subintervals are rethrown wrapped around the original
+			if (uoe.getCause() instanceof UnsupportedOperationException) throw (UnsupportedOperationException) uoe.getCause();
+			throw uoe;
+		}
+		// Subintervals near a singularity may run out of depth and still add up to an accurate total
+		final boolean converged = estimate._converged || estimate._error <= _tolerance;
+		return new Integral(estimate._value, estimate._error, integration._evaluations.sum(), estimate._intervals, converged);
+	}
+
+	private static boolean isFinite(double[] values){
+		return countNonFinite(values) == 0;
+	}
+
+	private static int countNonFinite(double[] values){
+		int count = 0;
+		for (double value : values) {
+			if (!isFinite(value)) ++count;
+		}
+		return count;
+	}
+
+	private static boolean isFinite(double value){
+		return !Double.isNaN(value) && !Double.isInfinite(value);
+	}
+
+	/**
+	 * @return how many distinct abscissae the values are not finite at
+	 */
+	private static int countSingularPoints(double[] xs, double[] fs){
+		int count = 0;
+		for (int i = 0; i < xs.length; ++i) {
+			if (isFinite(fs[i])) continue;
+			boolean seen = false;
+			for (int j = 0; j < i && !seen; ++j) {
+				seen = !isFinite(fs[j]) && xs[j] == xs[i];
+			}
+			if (!seen) ++count;
+		}
+		return count;
+	}
+
+	/**
+	 * The combined estimate over a set of subintervals.
+	 */
+	private static class Estimate {
+		final double _value;
+		final double _error;
+		final long _intervals;
+		final boolean _converged;
+
+		Estimate(double value, double error, long intervals, boolean converged){
+			_value = value;
+			_error = error;
+			_intervals = intervals;
+			_converged = converged;
+		}
+
+		Estimate plus(Estimate other){
+			return new Estimate(_value + other._value, _error + other._error, _intervals + other._intervals,
+				_converged && other._converged);
+		}
+	}
+
+	/**
+	 * The state shared by every subinterval of one integrate() call.
+	 */
+	private class Integration {
+		final Expression _expression;
+		final LongAdder _evaluations = new LongAdder();
+
+		Integration(Expression expression){
+			_expression = expression;
+		}
+
+		double[] evaluate(double[] xs){
+			final double[] fs = new double[xs.length];
+			_expression.evaluate(new double[][] { xs }, fs);
+			_evaluations.add(xs.length);
+			return fs;
+		}
+
+		boolean canSplit(double a, double b, int depth){
+			final double m = 0.5 * (a + b);
+			return depth < _maxDepth && a < m && m < b && _evaluations.sum() < _maxEvaluations;
+		}
+
+		Estimate split(RecursiveTask<Estimate> left, RecursiveTask<Estimate> right, int depth){
+			if (depth < FORK_DEPTH) {
+				left.fork();
+				final Estimate rightEstimate = right.invoke();
+				return left.join().plus(rightEstimate);
+			}
+			return left.invoke().plus(right.invoke());
+		}
+
+		/**
+		 * Adaptive Simpson's rule on [a, b], given f at a, the midpoint and b,
+		 * and the Simpson estimate whole over the entire interval.
+		 */
+		@SuppressWarnings("serial")
+		class SimpsonTask extends RecursiveTask<Estimate> {
+			final double _a, _b, _fa, _fm, _fb, _whole, _tol;
+			final int _depth;
+
+			SimpsonTask(double a, double b, double fa, double fm, double fb, double whole, double tol, int depth){
+				_a = a;
+				_b = b;
+				_fa = fa;
+				_fm = fm;
+				_fb = fb;
+				_whole = whole;
+				_tol = tol;
+				_depth = depth;
+			}
+
+			protected Estimate compute(){
+				final double m = 0.5 * (_a + _b);
+				final double lm = 0.5 * (_a + m), rm = 0.5 * (m + _b);
+				final double[] fs = evaluate(new double[] { lm, rm });
+				if (!isFinite(fs)) return new GaussKronrodTask(_a, _b, _tol, _depth).compute();
+
+				final double left = (m - _a) / 6 * (_fa + 4 * fs[0] + _fm);
+				final double right = (_b - m) / 6 * (_fm + 4 * fs[1] + _fb);
+				final double delta = left + right - _whole;
+				final boolean converged = Math.abs(delta) <= 15 * Math.max(_tol, ROUNDOFF * Math.abs(left + right));
+				if (converged || !canSplit(_a, _b, _depth)) {
+					return new Estimate(left + right + delta / 15, Math.abs(delta) / 15, 1, converged);
+				}
+				return split(new SimpsonTask(_a, m, _fa, fs[0], _fm, left, _tol / 2, _depth + 1),
+					new SimpsonTask(m, _b, _fm, fs[1], _fb, right, _tol / 2, _depth + 1), _depth);
+			}
+		}
+
+		/**
+		 * Adaptive 7-15 point Gauss-Kronrod quadrature on [a, b]; the error
+		 * estimate is the difference between the Kronrod and Gauss results.
+		 */
+		@SuppressWarnings("serial")
+		class GaussKronrodTask extends RecursiveTask<Estimate> {
+			final double _a, _b, _tol;
+			final int _depth;
+
+			GaussKronrodTask(double a, double b, double tol, int depth){
+				_a = a;
+				_b = b;
+				_tol = tol;
+				_depth = depth;
+			}
+
+			protected Estimate compute(){
+				final double center = 0.5 * (_a + _b), half = 0.5 * (_b - _a);
+				final double[] xs = new double[15];
+				xs[0] = center;
+				for (int j = 0; j < 7; ++j) {
+					xs[2 * j + 1] = center - half * XGK[j];
+					xs[2 * j + 2] = center + half * XGK[j];
+				}
+				final double[] fs = evaluate(xs);
+
+				final int singular = countSingularPoints(xs, fs);
+				final boolean splittable = canSplit(_a, _b, _depth);
+				double largest = 0;
+				for (double f : fs) {
+					if (isFinite(f)) largest = Math.max(largest, Math.abs(f));
+				}
+				// The weight of the nodes left out
+				double droppedWeight = 0;
+				if (singular > 0 && !splittable) {
+					// Down to the width of a pole: leave out the nodes that land on it
+					for (int i = 0; i < fs.length; ++i) {
+						if (!isFinite(fs[i])) {
+							droppedWeight += i == 0 ? WGK[7] : WGK[(i - 1) / 2];
+							fs[i] = 0;
+						}
+					}
+				} else if (singular > 1) {
+					throw new UnsupportedOperationException("Cannot integrate: expression is not finite on [" + _a + ", " + _b + "]");
+				} else if (singular == 1) {
+					return splitHere();
+				}
+
+				double kronrod = WGK[7] * fs[0];
+				double gauss = WG[3] * fs[0];
+				for (int j = 0; j < 7; ++j) {
+					final double sum = fs[2 * j + 1] + fs[2 * j + 2];
+					kronrod += WGK[j] * sum;
+					if (j % 2 == 1) gauss += WG[j / 2] * sum;
+				}
+				kronrod *= half;
+				gauss *= half;
+
+				final double error = Math.abs(kronrod - gauss) + half * droppedWeight * largest;
+				// The abscissae are rounded to the precision of x, which near a pole shows up in the
+				// error estimate however narrow the interval gets, so errors below that are not chased
+				final double abscissaNoise = ROUNDOFF * Math.max(Math.abs(_a), Math.abs(_b)) * largest;
+				final boolean converged = error <= Math.max(Math.max(_tol, abscissaNoise), ROUNDOFF * Math.abs(kronrod));
+				if (converged || !splittable) {
+					return new Estimate(kronrod, error, 1, converged);
+				}
+				return splitHere();
+			}
+
+			private Estimate splitHere(){
+				final double m = 0.5 * (_a + _b);
+				return split(new GaussKronrodTask(_a, m, _tol / 2, _depth + 1),
+					new GaussKronrodTask(m, _b, _tol / 2, _depth + 1), _depth);
+			}
+		}
+	}
+}
@@ -1,5 +1,33 @@
 class ExpressionParseException extends Exception {
+	private final int _offset;
+	private final String _expected;
+
 	public ExpressionParseException (String message) {
+		this(message, -1, null);
+	}
+
+	/**
+	 * @param message the detail message
+	 * @param offset the offset in the input at which parsing failed
+	 * @param expected a description of what was expected at that offset
+	 */
+	public ExpressionParseException (String message, int offset, String expected) {
 		super(message);
+		_offset = offset;
+		_expected = expected;
+	}
+
+	/**
+	 * @return the offset in the input at which parsing failed, or -1 if it is not known
+	 */
+	public int getOffset () {
+		return _offset;
+	}
+
+	/**
+	 * @return what was expected at the offset, or null if it is not known
+	 */
+	public String getExpected () {
+		return _expected;
 	}
 }
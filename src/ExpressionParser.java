@@ -7,4 +7,15 @@ interface ExpressionParser {
 	 * @return the Expression object representing the parsed expression tree
 	 */
 	Expression parse (String str) throws ExpressionParseException;
+
+	/**
+	 * Attempts to create an expression tree from the specified String, where the expression
+	 * may use any of the given variable names. Each variable is resolved at parse time to the
+	 * slot given by its index in variables, for use with Expression.evaluate(double[] env).
+	 * Throws a ExpressionParseException if the specified string cannot be parsed.
+	 * @param str the string to parse into an expression tree
+	 * @param variables the variable names, in slot order
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	Expression parse (String str, String... variables) throws ExpressionParseException;
 }
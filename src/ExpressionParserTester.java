@@ -1,7 +1,12 @@
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 
 /**
  * Some code to help you test Project 4.
@@ -44,6 +49,17 @@ public class ExpressionParserTester {
 		assertEquals("+\n\t*\n\t\t10.0\n\t\t^\n\t\t\tx\n\t\t\t3.0\n\t*\n\t\t2.0\n\t\t()\n\t\t\t+\n\t\t\t\t15.0\n\t\t\t\tx\n", _parser.parse(expressionStr).convertToString(0));
 	}
 
+	@Test
+	/**
+	 * Verifies that NaN and Infinity take a sign wherever a numeric literal can.
+	 */
+	public void testSignedSpecialLiterals () throws ExpressionParseException {
+		assertEquals(Double.NEGATIVE_INFINITY, _parser.parse("-Infinity").evaluate(0));
+		assertEquals(Double.POSITIVE_INFINITY, _parser.parse("x*(+Infinity)").evaluate(1));
+		assertTrue(Double.isNaN(_parser.parse("(-NaN)+x").evaluate(1)));
+		assertThrows(ExpressionParseException.class, () -> _parser.parse("-Infinityx"));
+	}
+
 	@Test
 	/**
 	 * Verifies that a specific expression is parsed into the correct parse tree.
@@ -129,4 +145,291 @@ public class ExpressionParserTester {
                 final String expressionStr = "4^3^2";
                 assertEquals(262144, (int) _parser.parse(expressionStr).evaluate(0));
         }
+
+        @Test
+        /**
+         * Verifies that named variables are resolved to their slots and evaluated from an environment.
+         */
+        public void testEvaluateVariables () throws ExpressionParseException {
+                final Expression expression = _parser.parse("a*x^2 + b", "x", "a", "b");
+                assertEquals("+\n\t*\n\t\ta\n\t\t^\n\t\t\tx\n\t\t\t2.0\n\tb\n", expression.convertToString(0));
+                assertEquals(14, expression.evaluate(new double[] { 2, 3, 2 }), 0.0001);
+        }
+
+        @Test
+        /**
+         * Verifies that a batch of environments, given as one column per variable, is evaluated correctly.
+         */
+        public void testEvaluateColumns () throws ExpressionParseException {
+                final Expression expression = _parser.parse("(x-y)/2", "x", "y");
+                final double[] out = new double[3];
+                expression.evaluate(new double[][] { { 4, 6, 8 }, { 2, 2, 10 } }, out);
+                assertEquals(1, out[0], 0.0001);
+                assertEquals(2, out[1], 0.0001);
+                assertEquals(-1, out[2], 0.0001);
+        }
+
+        @Test
+        /**
+         * Verifies that partial derivatives are taken with respect to the chosen slot.
+         */
+        public void testDifferentiateSlot () throws ExpressionParseException {
+                final Expression expression = _parser.parse("a*x^2", "x", "a");
+                final double[] env = { 3, 5 };
+                assertEquals(30, expression.differentiate(0).evaluate(env), 0.0001);
+                assertEquals(9, expression.differentiate(1).evaluate(env), 0.0001);
+                assertEquals(30, expression.differentiate().evaluate(env), 0.0001);
+        }
+
+        @Test
+        /**
+         * Verifies that concurrent requests for one handle are merged and split into batches,
+         * and that every caller gets back the values for its own x values.
+         */
+        public void testEvaluationServerBatches () throws Exception {
+                final EvaluationServer server = new EvaluationServer(0, 4, 2);
+                final ExecutorService callers = Executors.newFixedThreadPool(4);
+                try {
+                        final int handle = server.register("2*x+1");
+                        assertEquals(handle, server.register("2*x+1"));
+                        // Sizes around MAX_BATCH_POINTS, so that merged groups have to be split
+                        final int[] sizes = { 0, 1, 7, EvaluationServer.MAX_BATCH_POINTS - 3, 5, EvaluationServer.MAX_BATCH_POINTS, 100 };
+                        final List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+                        for (int i = 0; i < 40; ++i) {
+                                final int request = i;
+                                results.add(callers.submit(() -> {
+                                        final double[] xs = new double[sizes[request % sizes.length]];
+                                        for (int j = 0; j < xs.length; ++j) {
+                                                xs[j] = request * 100000 + j;
+                                        }
+                                        return server.evaluate(handle, xs).get(10, TimeUnit.SECONDS);
+                                }));
+                        }
+                        for (int i = 0; i < results.size(); ++i) {
+                                final double[] ys = results.get(i).get(10, TimeUnit.SECONDS);
+                                assertEquals(sizes[i % sizes.length], ys.length);
+                                for (int j = 0; j < ys.length; ++j) {
+                                        assertEquals(2 * (i * 100000 + j) + 1, ys[j], 0);
+                                }
+                        }
+                } finally {
+                        callers.shutdownNow();
+                        server.close();
+                }
+        }
+
+        @Test
+        /**
+         * Verifies that the least recently used handle is dropped past the handle limit,
+         * and that evaluating it fails until the expression is registered again.
+         */
+        public void testEvaluationServerHandles () throws Exception {
+                final EvaluationServer server = new EvaluationServer(0, 4, 2, 1);
+                try {
+                        final int first = server.register("x");
+                        server.register("x+1");
+                        server.register("x+2");
+                        final ExecutionException ee = assertThrows(ExecutionException.class,
+                                () -> server.evaluate(first, new double[] { 1 }).get(10, TimeUnit.SECONDS));
+                        assertTrue(ee.getCause() instanceof IllegalArgumentException);
+                        final int again = server.register("x");
+                        assertTrue(again != first);
+                        assertEquals(3, server.evaluate(again, new double[] { 3 }).get(10, TimeUnit.SECONDS)[0], 0);
+                } finally {
+                        server.close();
+                }
+        }
+
+        @Test
+        /**
+         * Verifies that a bad batch size is answered with an error and leaves the connection usable,
+         * that an unknown operation is answered before the connection is closed, and that close()
+         * stops the dispatcher.
+         */
+        public void testEvaluationServerProtocol () throws Exception {
+                final EvaluationServer server = new EvaluationServer(0, 4, 1);
+                final Thread serving = new Thread(server::serve);
+                serving.setDaemon(true);
+                serving.start();
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        out.writeByte(EvaluationServer.OP_REGISTER);
+                        out.writeUTF("x^2");
+                        out.flush();
+                        assertEquals(EvaluationServer.STATUS_OK, in.readByte());
+                        final int handle = in.readInt();
+
+                        out.writeByte(EvaluationServer.OP_EVALUATE);
+                        out.writeInt(handle);
+                        out.writeInt(-1);
+                        out.flush();
+                        assertEquals(EvaluationServer.STATUS_ERROR, in.readByte());
+                        assertTrue(in.readUTF().startsWith("Batch size -1"));
+
+                        out.writeByte(EvaluationServer.OP_EVALUATE);
+                        out.writeInt(handle);
+                        out.writeInt(2);
+                        out.writeDouble(3);
+                        out.writeDouble(-4);
+                        out.flush();
+                        assertEquals(EvaluationServer.STATUS_OK, in.readByte());
+                        assertEquals(2, in.readInt());
+                        assertEquals(9, in.readDouble(), 0);
+                        assertEquals(16, in.readDouble(), 0);
+
+                        out.writeByte(42);
+                        out.flush();
+                        assertEquals(EvaluationServer.STATUS_ERROR, in.readByte());
+                        assertTrue(in.readUTF().startsWith("Unknown operation"));
+                        assertEquals(-1, in.read());
+                } finally {
+                        server.close();
+                }
+                for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                        assertFalse(thread.getName().equals("evaluation-dispatcher"));
+                }
+                assertThrows(ExecutionException.class, () -> server.evaluate(1, new double[] { 1 }).get(10, TimeUnit.SECONDS));
+        }
+
+        @Test
+        /**
+         * Verifies that both quadrature rules integrate a polynomial.
+         */
+        public void testIntegrate1 () throws ExpressionParseException {
+                final Expression expression = _parser.parse("3*x^2 + 1");
+                final ExpressionIntegrator integrator = new ExpressionIntegrator();
+                assertEquals(10, integrator.integrate(expression, 0, 2, ExpressionIntegrator.Rule.SIMPSON).getValue(), 1e-8);
+                assertEquals(10, integrator.integrate(expression, 0, 2, ExpressionIntegrator.Rule.GAUSS_KRONROD).getValue(), 1e-8);
+                assertEquals(-10, integrator.integrate(expression, 2, 0).getValue(), 1e-8);
+        }
+
+        @Test
+        /**
+         * Verifies that integrable singularities at an end point, inside the interval and at its
+         * midpoint are handled, and that an integrand that is not finite over the interval is rejected.
+         */
+        public void testIntegrate2 () throws ExpressionParseException {
+                final ExpressionIntegrator integrator = new ExpressionIntegrator();
+                final ExpressionIntegrator.Integral integral = integrator.integrate(_parser.parse("log(x)"), 0, 1, ExpressionIntegrator.Rule.SIMPSON);
+                assertEquals(-1, integral.getValue(), 1e-8);
+                assertTrue(integral.isConverged());
+                assertTrue(integral.getEvaluations() > 0);
+                // 2 ((1-p) log(1-p) + p log(p) - 1)
+                final ExpressionIntegrator.Integral pole = integrator.integrate(_parser.parse("log((x-0.3)^2)"), 0, 1);
+                assertEquals(2 * (0.7 * Math.log(0.7) + 0.3 * Math.log(0.3) - 1), pole.getValue(), 1e-9);
+                assertTrue(pole.getError() <= 1e-9);
+                assertTrue(pole.isConverged());
+                final ExpressionIntegrator.Integral midpoint = integrator.integrate(_parser.parse("log((x-1)^2)"), 0, 2);
+                assertEquals(-4, midpoint.getValue(), 1e-9);
+                assertTrue(midpoint.getError() <= 1e-9);
+                assertTrue(midpoint.isConverged());
+                final ExpressionIntegrator.Integral dyadic = integrator.integrate(_parser.parse("log((x-0.75)^2)"), 0, 1);
+                assertEquals(2 * (0.25 * Math.log(0.25) + 0.75 * Math.log(0.75) - 1), dyadic.getValue(), 1e-9);
+                assertTrue(dyadic.getError() <= 1e-9);
+                assertThrows(UnsupportedOperationException.class, () -> integrator.integrate(_parser.parse("log(x-2)"), 0, 1));
+        }
+
+        @Test
+        /**
+         * Verifies that roots are found by Newton steps, and by Brent's method when there is no derivative.
+         */
+        public void testFindRoots () throws ExpressionParseException {
+                final ExpressionSolver solver = new ExpressionSolver();
+                final double[] roots = solver.findRoots(_parser.parse("(x-1)*(x-2)*(x+3)"), -10, 10);
+                assertEquals(3, roots.length);
+                assertEquals(-3, roots[0], 1e-9);
+                assertEquals(1, roots[1], 1e-9);
+                assertEquals(2, roots[2], 1e-9);
+                final double[] powerRoots = solver.findRoots(_parser.parse("x^x - 4"), 0.5, 5);
+                assertEquals(1, powerRoots.length);
+                assertEquals(2, powerRoots[0], 1e-9);
+                assertEquals(0, solver.findRoots(_parser.parse("1/x"), -1, 1).length);
+                final double[] zeroRoots = solver.findRoots(_parser.parse("x-x"), -10, 10);
+                assertEquals(2, zeroRoots.length);
+                assertEquals(-10, zeroRoots[0], 0);
+                assertEquals(10, zeroRoots[1], 0);
+        }
+
+        @Test
+        /**
+         * Verifies that extrema are found as the roots of the derivative.
+         */
+        public void testFindExtrema () throws ExpressionParseException {
+                final double[] extrema = new ExpressionSolver().findExtrema(_parser.parse("x^3 - 3*x"), -10, 10);
+                assertEquals(2, extrema.length);
+                assertEquals(-1, extrema[0], 1e-9);
+                assertEquals(1, extrema[1], 1e-9);
+        }
+
+        @Test
+        /**
+         * Verifies that a tabulated expression and its derivative are read back correctly,
+         * and that tabulating into a partially written table only writes the missing chunks.
+         */
+        public void testTabulate () throws ExpressionParseException, IOException {
+                final Path path = Files.createTempFile("table", ".bin");
+                Files.delete(path);
+                // The table stays mapped until it is garbage collected, so it cannot always be deleted right away
+                path.toFile().deleteOnExit();
+                final Expression expression = _parser.parse("x^2");
+                final ExpressionTabulator tabulator = new ExpressionTabulator(64, 2);
+                assertEquals(16, tabulator.tabulate(expression, true, -1, 1, 1001, path));
+
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        channel.write(ByteBuffer.wrap(new byte[] { 0 }), ExpressionTable.HEADER_SIZE + 3);
+                }
+                assertEquals(1, tabulator.tabulate(expression, true, -1, 1, 1001, path));
+
+                try (ExpressionTable table = ExpressionTable.open(path)) {
+                        assertTrue(table.isComplete());
+                        assertEquals(1001, table.size());
+                        assertEquals(0.2, table.x(600), 1e-12);
+                        assertEquals(0.04, table.value(600), 1e-12);
+                        assertEquals(0.4, table.derivative(600), 1e-12);
+                        final DoubleBuffer values = table.column(ExpressionTable.VALUES, 1000, 1);
+                        assertEquals(1, values.get(0), 1e-12);
+                }
+        }
+
+        @Test
+        /**
+         * Verifies that malformed input is rejected with the offset of the problem and what was expected there.
+         */
+        public void testExceptionOffset () {
+                ExpressionParseException epe = assertThrows(ExpressionParseException.class, () -> _parser.parse("1+2+"));
+                assertEquals(4, epe.getOffset());
+                assertEquals(ExpressionValidator.OPERAND, epe.getExpected());
+
+                epe = assertThrows(ExpressionParseException.class, () -> _parser.parse("(x + 1"));
+                assertEquals(6, epe.getOffset());
+                assertEquals("')'", epe.getExpected());
+
+                epe = assertThrows(ExpressionParseException.class, () -> _parser.parse("2x"));
+                assertEquals(1, epe.getOffset());
+
+                epe = assertThrows(ExpressionParseException.class, () -> _parser.parse("3.5e*x"));
+                assertEquals(4, epe.getOffset());
+                assertEquals("a digit", epe.getExpected());
+
+                epe = assertThrows(ExpressionParseException.class, () -> _parser.parse("x*y"));
+                assertEquals(2, epe.getOffset());
+        }
+
+        @Test
+        /**
+         * Verifies that generated expressions are reproducible, parse, reach their target size
+         * and can be differentiated.
+         */
+        public void testRandomExpressions () throws ExpressionParseException {
+                final RandomExpressionGenerator generator = new RandomExpressionGenerator(7);
+                final RandomExpressionGenerator sameSeed = new RandomExpressionGenerator(7);
+                for (int size = 1; size <= 10000; size *= 10) {
+                        final String expressionStr = generator.generate(size);
+                        assertEquals(expressionStr, sameSeed.generate(size));
+                        final Expression expression = _parser.parse(expressionStr);
+                        assertEquals(size, expression.size());
+                        assertTrue(expression.differentiate().size() > 0);
+                }
+        }
 }
@@ -0,0 +1,183 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Measures how parsing, evaluation and differentiation scale with the size of the
+ * expression, on expressions from RandomExpressionGenerator with sizes from 10 to 10^6 nodes.
+ * Prints one CSV row per size: the actual average number of nodes, the throughput of each
+ * operation in tree nodes per second, and how many nodes the derivative has compared to the expression.
+ *
+ * When a baseline CSV (the output of an earlier run) exists, every throughput is compared
+ * with the baseline row of the same size, and the run exits with status 1 if any of them
+ * dropped by more than the tolerance.
+ *
+ * Usage: ExpressionScalingHarness [--sizes 10,100,...] [--seed n] [--out file]
+ *   [--baseline file] [--tolerance fraction] [--write-baseline]
+ */
+public class ExpressionScalingHarness {
+	public static final String HEADER = "size,nodes,parse_nodes_per_s,evaluate_nodes_per_s,differentiate_nodes_per_s,derivative_nodes,derivative_growth";
+	public static final String DEFAULT_BASELINE = "scaling-baseline.csv";
+	public static final double DEFAULT_TOLERANCE = 0.5;
+	// Each measurement is repeated until it has run for at least this long
+	protected static final long MIN_TIME_NS = 200000000L;
+	// Roughly how many nodes are parsed per sample, so that small sizes are timed over many expressions
+	protected static final int NODES_PER_SAMPLE = 100000;
+	protected static final int EVALUATION_POINTS = 64;
+
+	private static final int SIZE = 0, PARSE = 2, EVALUATE = 3, DIFFERENTIATE = 4;
+
+	public static void main (String[] args) throws Exception {
+		int[] sizes = { 10, 100, 1000, 10000, 100000, 1000000 };
+		long seed = 2103;
+		String outFile = null;
+		String baselineFile = DEFAULT_BASELINE;
+		double tolerance = DEFAULT_TOLERANCE;
+		boolean writeBaseline = false;
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--sizes": sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+				case "--seed": seed = Long.parseLong(args[++i]); break;
+				case "--out": outFile = args[++i]; break;
+				case "--baseline": baselineFile = args[++i]; break;
+				case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+				case "--write-baseline": writeBaseline = true; break;
+				default: throw new IllegalArgumentException("Unknown argument: " + args[i]);
+			}
+		}
+
+		final List<double[]> rows = new ArrayList<double[]>();
+		System.out.println(HEADER);
+		for (int size : sizes) {
+			final double[] row = measure(size, seed);
+			rows.add(row);
+			System.out.println(format(row));
+		}
+
+		if (outFile != null) write(Paths.get(outFile), rows);
+		final Path baseline = Paths.get(baselineFile);
+		if (writeBaseline) {
+			write(baseline, rows);
+			System.err.println("Wrote baseline " + baseline);
+		} else if (Files.exists(baseline)) {
+			if (!compare(rows, read(baseline), tolerance)) System.exit(1);
+		} else {
+			System.err.println("No baseline at " + baseline + "; skipping the throughput check");
+		}
+	}
+
+	/**
+	 * Generates expressions of the given size and measures them.
+	 * @return the CSV row for the size
+	 */
+	static double[] measure(int size, long seed) throws ExpressionParseException {
+		final RandomExpressionGenerator generator = new RandomExpressionGenerator(seed + size);
+		final ExpressionParser parser = new SimpleExpressionParser();
+		final String[] strings = new String[Math.max(1, NODES_PER_SAMPLE / size)];
+		final Expression[] expressions = new Expression[strings.length];
+		long nodes = 0;
+		for (int i = 0; i < strings.length; ++i) {
+			strings[i] = generator.generate(size);
+			expressions[i] = parser.parse(strings[i]);
+			nodes += expressions[i].size();
+		}
+
+		final double[] xs = new double[EVALUATION_POINTS];
+		for (int i = 0; i < xs.length; ++i) {
+			xs[i] = -10 + 20.0 * i / xs.length;
+		}
+
+		final double parseRate = time(nodes, () -> {
+			for (String string : strings) {
+				parser.parse(string);
+			}
+		});
+		final double evaluateRate = time(nodes * xs.length, () -> {
+			for (Expression expression : expressions) {
+				for (double x : xs) {
+					expression.evaluate(x);
+				}
+			}
+		});
+		final double differentiateRate = time(nodes, () -> {
+			for (Expression expression : expressions) {
+				expression.differentiate();
+			}
+		});
+
+		long derivativeNodes = 0;
+		for (Expression expression : expressions) {
+			derivativeNodes += expression.differentiate().size();
+		}
+		return new double[] { size, (double) nodes / expressions.length, parseRate, evaluateRate, differentiateRate,
+			(double) derivativeNodes / expressions.length, (double) derivativeNodes / nodes };
+	}
+
+	private interface Work {
+		void run() throws ExpressionParseException;
+	}
+
+	/**
+	 * Runs the work once to warm up, then repeatedly for at least MIN_TIME_NS.
+	 * @return the number of units processed per second
+	 */
+	private static double time(long units, Work work) throws ExpressionParseException {
+		work.run();
+		long repetitions = 0;
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			work.run();
+			++repetitions;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MIN_TIME_NS);
+		return units * repetitions / (elapsed / 1e9);
+	}
+
+	/**
+	 * Compares each throughput with the baseline row of the same size.
+	 * @return false if any throughput is more than tolerance below its baseline
+	 */
+	static boolean compare(List<double[]> rows, Map<Long, double[]> baseline, double tolerance){
+		final String[] names = HEADER.split(",");
+		boolean passed = true;
+		for (double[] row : rows) {
+			final double[] expected = baseline.get(Math.round(row[SIZE]));
+			if (expected == null) continue;
+			for (int column : new int[] { PARSE, EVALUATE, DIFFERENTIATE }) {
+				if (row[column] < expected[column] * (1 - tolerance)) {
+					System.err.printf("Regression at size %d: %s is %.0f, baseline %.0f%n", Math.round(row[SIZE]), names[column], row[column], expected[column]);
+					passed = false;
+				}
+			}
+		}
+		return passed;
+	}
+
+	private static String format(double[] row){
+		return String.format(Locale.ROOT, "%d,%.0f,%.0f,%.0f,%.0f,%.0f,%.3f", Math.round(row[0]), row[1], row[2], row[3], row[4], row[5], row[6]);
+	}
+
+	private static void write(Path path, List<double[]> rows) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		lines.add(HEADER);
+		for (double[] row : rows) {
+			lines.add(format(row));
+		}
+		Files.write(path, lines);
+	}
+
+	private static Map<Long, double[]> read(Path path) throws IOException {
+		final Map<Long, double[]> rows = new HashMap<Long, double[]>();
+		for (String line : Files.readAllLines(path)) {
+			if (line.isEmpty() || line.startsWith("size")) continue;
+			final String[] cells = line.split(",");
+			final double[] row = new double[cells.length];
+			for (int i = 0; i < cells.length; ++i) {
+				row[i] = Double.parseDouble(cells[i]);
+			}
+			rows.put(Math.round(row[SIZE]), row);
+		}
+		return rows;
+	}
+}
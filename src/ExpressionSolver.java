@@ -0,0 +1,233 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds the roots and extrema of an Expression over x on an interval.
+ * The expression is sampled on a coarse grid (in one batch evaluation) to find the
+ * intervals where it changes sign, and each of these brackets is then refined in
+ * parallel. Refinement takes Newton steps using the symbolic derivative, falling back
+ * to bisection whenever a step would leave the bracket or does not shrink fast enough.
+ * When the expression cannot be differentiated, Brent's method is used instead.
+ * Extrema are found as the roots of the derivative.
+ *
+ * Roots are only found where the sign changes between two grid points, so a double
+ * root that only touches 0, or two roots closer than the grid spacing, can be missed.
+ * Where the expression is 0 at several consecutive grid points (e.g. x-x), it is taken
+ * to be 0 on the whole interval between them, and only the two ends of that interval
+ * are reported as roots.
+ */
+public class ExpressionSolver {
+	public static final int DEFAULT_GRID_POINTS = 1000;
+	public static final double DEFAULT_TOLERANCE = 1e-12;
+	protected static final int MAX_ITERATIONS = 200;
+
+	private final ForkJoinPool _pool;
+	private final int _gridPoints;
+	private final double _tolerance;
+
+	public ExpressionSolver(){
+		this(ForkJoinPool.commonPool(), DEFAULT_GRID_POINTS, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * @param pool the pool that brackets are refined on
+	 * @param gridPoints how many intervals [a, b] is split into when looking for sign changes
+	 * @param tolerance the relative width at which a bracket counts as converged
+	 */
+	public ExpressionSolver(ForkJoinPool pool, int gridPoints, double tolerance){
+		_pool = pool;
+		_gridPoints = gridPoints;
+		_tolerance = tolerance;
+	}
+
+	/**
+	 * Finds the values of x in [a, b] where the expression is 0.
+	 * Sign changes across a pole (e.g. 1/x at 0) are not reported as roots.
+	 * @param expression the expression to solve
+	 * @param a the lower bound
+	 * @param b the upper bound
+	 * @return the roots, in increasing order
+	 */
+	public double[] findRoots(Expression expression, double a, double b){
+		return findRoots(expression, derivativeOf(expression), a, b);
+	}
+
+	/**
+	 * Finds the values of x in (a, b) where the expression has a local minimum or maximum,
+	 * i.e. where its derivative changes sign.
+	 * Throws an UnsupportedOperationException if the expression cannot be differentiated.
+	 * @param expression the expression to find the extrema of
+	 * @param a the lower bound
+	 * @param b the upper bound
+	 * @return the x of each extremum, in increasing order
+	 */
+	public double[] findExtrema(Expression expression, double a, double b){
+		final Expression derivative = expression.differentiate();
+		return findRoots(derivative, derivativeOf(derivative), a, b);
+	}
+
+	/**
+	 * @return the derivative of the expression, or null if it cannot be differentiated
+	 */
+	private static Expression derivativeOf(Expression expression){
+		try {
+			return expression.differentiate();
+		} catch (UnsupportedOperationException uoe) {
+			return null;
+		}
+	}
+
+	private double[] findRoots(final Expression f, final Expression df, double a, double b){
+		if (a > b) return findRoots(f, df, b, a);
+
+		final double[] xs = new double[_gridPoints + 1];
+		for (int i = 0; i <= _gridPoints; ++i) {
+			xs[i] = i == _gridPoints ? b : a + (b - a) * i / _gridPoints;
+		}
+		final double[] fs = new double[xs.length];
+		f.evaluate(new double[][] { xs }, fs);
+
+		final List<Double> roots = new ArrayList<Double>();
+		final List<Callable<Double>> brackets = new ArrayList<Callable<Double>>();
+		for (int i = 0; i < xs.length; ++i) {
+			if (fs[i] == 0) {
+				roots.add(xs[i]);
+				final int start = i;
+				while (i + 1 < xs.length && fs[i + 1] == 0) ++i;
+				if (i > start) roots.add(xs[i]);
+			} else if (i + 1 < xs.length && fs[i + 1] != 0 && isFinite(fs[i]) && isFinite(fs[i + 1])
+					&& (fs[i] < 0) != (fs[i + 1] < 0)) {
+				final double lo = xs[i], hi = xs[i + 1], flo = fs[i], fhi = fs[i + 1];
+				brackets.add(() -> df == null ? brent(f, lo, hi, flo, fhi) : newton(f, df, lo, hi, flo, fhi));
+			}
+		}
+
+		for (Future<Double> root : _pool.invokeAll(brackets)) {
+			try {
+				if (!Double.isNaN(root.get())) roots.add(root.get());
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException("Root refinement failed", e);
+			}
+		}
+
+		final double[] sorted = new double[roots.size()];
+		for (int i = 0; i < sorted.length; ++i) {
+			sorted[i] = roots.get(i);
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private static boolean isFinite(double value){
+		return !Double.isNaN(value) && !Double.isInfinite(value);
+	}
+
+	private boolean converged(double lo, double hi){
+		return hi - lo <= _tolerance * Math.max(1, Math.abs(lo) + Math.abs(hi)) || Math.nextUp(lo) >= hi;
+	}
+
+	/**
+	 * Accepts x as a root of the bracket that started with the values flo and fhi,
+	 * unless f(x) is larger than both, which means the sign change came from a pole.
+	 */
+	private static double accept(double x, double fx, double flo, double fhi){
+		if (!isFinite(fx) || Math.abs(fx) > Math.max(Math.abs(flo), Math.abs(fhi))) return Double.NaN;
+		return x;
+	}
+
+	/**
+	 * Refines a bracket [lo, hi] with f(lo) and f(hi) of opposite signs using Newton steps,
+	 * bisecting whenever a step leaves the bracket, the derivative is 0 or not finite,
+	 * or the step is not at most half of the one before the last.
+	 */
+	private double newton(Expression f, Expression df, double lo, double hi, double flo, double fhi){
+		final double startLo = flo, startHi = fhi;
+		double x = 0.5 * (lo + hi);
+		double step = hi - lo, lastStep = step;
+		for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+			final double fx = f.evaluate(x);
+			if (fx == 0) return x;
+			if ((fx < 0) == (flo < 0)) {
+				lo = x;
+				flo = fx;
+			} else {
+				hi = x;
+				fhi = fx;
+			}
+			if (converged(lo, hi)) break;
+
+			final double dfx = df.evaluate(x);
+			final double newtonX = x - fx / dfx;
+			final double previous = lastStep;
+			lastStep = step;
+			if (isFinite(newtonX) && newtonX > lo && newtonX < hi && Math.abs(newtonX - x) <= 0.5 * Math.abs(previous)) {
+				step = newtonX - x;
+				x = newtonX;
+			} else {
+				step = 0.5 * (hi - lo);
+				x = lo + step;
+			}
+		}
+		final double root = Math.abs(flo) < Math.abs(fhi) ? lo : hi;
+		return accept(root, f.evaluate(root), startLo, startHi);
+	}
+
+	/**
+	 * Refines a bracket [a, b] with f(a) and f(b) of opposite signs using Brent's method
+	 * (inverse quadratic interpolation and secant steps, safeguarded by bisection).
+	 */
+	private double brent(Expression f, double a, double b, double fa, double fb){
+		final double startA = fa, startB = fb;
+		double c = a, fc = fa;
+		double d = b - a, e = d;
+		for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+			if ((fb < 0) == (fc < 0)) {
+				c = a;
+				fc = fa;
+				d = b - a;
+				e = d;
+			}
+			if (Math.abs(fc) < Math.abs(fb)) {
+				a = b;
+				b = c;
+				c = a;
+				fa = fb;
+				fb = fc;
+				fc = fa;
+			}
+			final double tol = 0.5 * _tolerance * Math.max(1, Math.abs(b));
+			final double m = 0.5 * (c - b);
+			if (Math.abs(m) <= tol || fb == 0 || Math.nextUp(Math.min(b, c)) >= Math.max(b, c)) break;
+
+			if (Math.abs(e) >= tol && Math.abs(fa) > Math.abs(fb)) {
+				double p, q;
+				final double s = fb / fa;
+				if (a == c) {
+					p = 2 * m * s;
+					q = 1 - s;
+				} else {
+					final double r = fb / fc, t = fa / fc;
+					p = s * (2 * m * t * (t - r) - (b - a) * (r - 1));
+					q = (t - 1) * (r - 1) * (s - 1);
+				}
+				if (p > 0) q = -q;
+				else p = -p;
+				if (2 * p < Math.min(3 * m * q - Math.abs(tol * q), Math.abs(e * q))) {
+					e = d;
+					d = p / q;
+				} else {
+					d = m;
+					e = d;
+				}
+			} else {
+				d = m;
+				e = d;
+			}
+			a = b;
+			fa = fb;
+			b += Math.abs(d) > tol ? d : (m > 0 ? tol : -tol);
+			fb = f.evaluate(b);
+		}
+		return accept(b, fb, startA, startB);
+	}
+}
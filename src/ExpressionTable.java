@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * A table of an expression (and optionally its derivative) sampled on an evenly spaced
+ * grid, stored as raw little-endian doubles in a file and read back through memory
+ * mapping, so the values are never copied onto the heap.
+ *
+ * File layout:
+ * header (HEADER_SIZE bytes): magic, version, column count, point count, min x, step,
+ *   chunk size, chunk count and a hash of the expression;
+ * one byte per chunk, set to 1 once that chunk is written (padded to a multiple of 8 bytes);
+ * column 0, the values, then column 1, the derivatives if present; count doubles each.
+ * x is not stored: point i is at x = min + i*step.
+ */
+public class ExpressionTable implements Closeable {
+	public static final long MAGIC = 0x3142415452505845L; // "EXPRTAB1" in little-endian byte order
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int VALUES = 0, DERIVATIVES = 1;
+	// Reads from a single mapping are limited to this many points, to stay below the 2GB mapping limit
+	protected static final int SEGMENT_POINTS = 1 << 27;
+
+	private final FileChannel _channel;
+	private final int _columns;
+	private final long _count;
+	private final double _min;
+	private final double _step;
+	private final int _chunkSize;
+	private final int _chunkCount;
+	private final int _expressionHash;
+	private final MappedByteBuffer[][] _segments;
+
+	private ExpressionTable(FileChannel channel, ByteBuffer header) throws IOException {
+		_channel = channel;
+		if (header.getLong(0) != MAGIC) throw new IOException("Not an expression table");
+		if (header.getInt(8) != VERSION) throw new IOException("Unsupported expression table version: " + header.getInt(8));
+		_columns = header.getInt(12);
+		_count = header.getLong(16);
+		_min = header.getDouble(24);
+		_step = header.getDouble(32);
+		_chunkSize = header.getInt(40);
+		_chunkCount = header.getInt(44);
+		_expressionHash = header.getInt(48);
+		if (channel.size() < dataOffset(_chunkCount) + _columns * _count * Double.BYTES) {
+			throw new IOException("Expression table is truncated");
+		}
+
+		final int segmentCount = (int) ((_count + SEGMENT_POINTS - 1) / SEGMENT_POINTS);
+		_segments = new MappedByteBuffer[_columns][segmentCount];
+		for (int column = 0; column < _columns; ++column) {
+			for (int segment = 0; segment < segmentCount; ++segment) {
+				final long start = (long) segment * SEGMENT_POINTS;
+				final long points = Math.min(SEGMENT_POINTS, _count - start);
+				_segments[column][segment] = channel.map(FileChannel.MapMode.READ_ONLY, offsetOf(column, start), points * Double.BYTES);
+				_segments[column][segment].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+	}
+
+	/**
+	 * Opens a table written by ExpressionTabulator for reading.
+	 * @param path the table file
+	 * @return the table
+	 */
+	public static ExpressionTable open(Path path) throws IOException {
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new ExpressionTable(channel, readHeader(channel));
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+	}
+
+	static ByteBuffer readHeader(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_SIZE) throw new IOException("Not an expression table");
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) throw new IOException("Not an expression table");
+		}
+		return header;
+	}
+
+	/**
+	 * @return the offset of the first column, right after the header and the chunk flags
+	 */
+	static long dataOffset(int chunkCount){
+		return HEADER_SIZE + ((chunkCount + 7L) & ~7L);
+	}
+
+	private long offsetOf(int column, long index){
+		return dataOffset(_chunkCount) + (column * _count + index) * Double.BYTES;
+	}
+
+	public long size(){ return _count; }
+	public double getMin(){ return _min; }
+	public double getStep(){ return _step; }
+	public int getChunkSize(){ return _chunkSize; }
+	public int getExpressionHash(){ return _expressionHash; }
+	public boolean hasDerivative(){ return _columns > DERIVATIVES; }
+
+	/**
+	 * @return whether every chunk of the table has been written
+	 */
+	public boolean isComplete() throws IOException {
+		final ByteBuffer flags = _channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, _chunkCount);
+		for (int chunk = 0; chunk < _chunkCount; ++chunk) {
+			if (flags.get(chunk) == 0) return false;
+		}
+		return true;
+	}
+
+	public double x(long index){
+		return _min + index * _step;
+	}
+
+	public double value(long index){
+		return get(VALUES, index);
+	}
+
+	public double derivative(long index){
+		return get(DERIVATIVES, index);
+	}
+
+	private double get(int column, long index){
+		if (index < 0 || index >= _count) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + _count + " points");
+		return _segments[column][(int) (index / SEGMENT_POINTS)].getDouble((int) (index % SEGMENT_POINTS) * Double.BYTES);
+	}
+
+	/**
+	 * Returns a read-only view of length values of a column, starting at start, backed directly by the file.
+	 * @param column VALUES or DERIVATIVES
+	 * @param start the index of the first point
+	 * @param length the number of points
+	 * @return the view
+	 */
+	public DoubleBuffer column(int column, long start, int length) throws IOException {
+		if (column < 0 || column >= _columns) throw new IllegalArgumentException("No column " + column);
+		if (start < 0 || length < 0 || start + length > _count) throw new IndexOutOfBoundsException("Range " + start + "+" + length + " out of bounds for " + _count + " points");
+		if (start / SEGMENT_POINTS == (start + length - 1) / SEGMENT_POINTS) {
+			final ByteBuffer segment = _segments[column][(int) (start / SEGMENT_POINTS)].duplicate();
+			segment.position((int) (start % SEGMENT_POINTS) * Double.BYTES);
+			segment.limit(segment.position() + length * Double.BYTES);
+			return segment.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+		return _channel.map(FileChannel.MapMode.READ_ONLY, offsetOf(column, start), (long) length * Double.BYTES)
+			.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+	public void close() throws IOException {
+		_channel.close();
+	}
+}
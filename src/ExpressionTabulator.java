@@ -0,0 +1,176 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tabulates an expression (and optionally its derivative) over an evenly spaced grid
+ * into an ExpressionTable file, for grids far too large to collect on the heap.
+ * The grid is cut into fixed-size chunks, which are evaluated in batches by a pool of
+ * workers and written straight into a memory-mapped region of the file. Only a bounded
+ * number of chunks are in flight at once, so heap use does not grow with the grid.
+ *
+ * Each chunk is flagged in the file once its values are forced to disk, so tabulating
+ * into an existing, partially written table with the same parameters only computes
+ * the chunks that are missing.
+ */
+public class ExpressionTabulator {
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+
+	private final int _chunkSize;
+	private final int _workers;
+
+	public ExpressionTabulator(){
+		this(DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param chunkSize how many points each worker evaluates and writes at a time
+	 * @param workers how many chunks are evaluated in parallel
+	 */
+	public ExpressionTabulator(int chunkSize, int workers){
+		_chunkSize = chunkSize;
+		_workers = workers;
+	}
+
+	/**
+	 * Tabulates the expression at count evenly spaced points from min to max (inclusive) into the file,
+	 * resuming it if the file already holds a partial table with the same parameters.
+	 * Throws an UnsupportedOperationException if withDerivative is set and the expression cannot be differentiated.
+	 * @param expression the expression to tabulate
+	 * @param withDerivative whether to also tabulate the derivative of the expression
+	 * @param min the first x of the grid
+	 * @param max the last x of the grid
+	 * @param count the number of grid points
+	 * @param path the table file
+	 * @return the number of chunks written by this call
+	 */
+	public int tabulate(Expression expression, boolean withDerivative, double min, double max, long count, Path path) throws IOException {
+		final Expression derivative = withDerivative ? expression.differentiate() : null;
+		final int columns = withDerivative ? 2 : 1;
+		final double step = count > 1 ? (max - min) / (count - 1) : 0;
+		final long chunks = (count + _chunkSize - 1) / _chunkSize;
+		if (chunks > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many chunks; use a larger chunk size");
+		final int chunkCount = (int) chunks;
+		final int expressionHash = expression.convertToString(0).hashCode();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() == 0) {
+				writeHeader(channel, columns, count, min, step, chunkCount, expressionHash);
+			} else {
+				checkHeader(ExpressionTable.readHeader(channel), columns, count, min, step, chunkCount, expressionHash);
+			}
+
+			final MappedByteBuffer flags = channel.map(FileChannel.MapMode.READ_WRITE, ExpressionTable.HEADER_SIZE, chunkCount);
+			final long dataOffset = ExpressionTable.dataOffset(chunkCount);
+			final ExecutorService pool = Executors.newFixedThreadPool(_workers);
+			// Bounds the chunks that are queued or being evaluated, and with them the heap in use
+			final Semaphore inFlight = new Semaphore(2 * _workers);
+			final List<Future<?>> pending = new ArrayList<Future<?>>();
+			try {
+				for (int chunk = 0; chunk < chunkCount; ++chunk) {
+					if (flags.get(chunk) != 0) continue;
+					inFlight.acquire();
+					final int index = chunk;
+					pending.add(pool.submit(() -> {
+						try {
+							writeChunk(channel, expression, derivative, min, step, count, dataOffset, index);
+							flags.put(index, (byte) 1);
+						} finally {
+							inFlight.release();
+						}
+						return null;
+					}));
+				}
+				for (Future<?> future : pending) {
+					future.get();
+				}
+				flags.force();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Tabulation interrupted");
+			} catch (ExecutionException ee) {
+				if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+				if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+				throw new IOException(ee.getCause());
+			} finally {
+				pool.shutdownNow();
+			}
+			return pending.size();
+		}
+	}
+
+	private void writeChunk(FileChannel channel, Expression expression, Expression derivative,
+			double min, double step, long count, long dataOffset, int chunk) throws IOException {
+		final long start = (long) chunk * _chunkSize;
+		final int points = (int) Math.min(_chunkSize, count - start);
+		final double[][] xs = { new double[points] };
+		for (int i = 0; i < points; ++i) {
+			xs[0][i] = min + (start + i) * step;
+		}
+		final double[] ys = new double[points];
+
+		expression.evaluate(xs, ys);
+		writeColumn(channel, dataOffset + start * Double.BYTES, ys);
+		if (derivative != null) {
+			derivative.evaluate(xs, ys);
+			writeColumn(channel, dataOffset + (count + start) * Double.BYTES, ys);
+		}
+	}
+
+	private static void writeColumn(FileChannel channel, long offset, double[] values) throws IOException {
+		final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) values.length * Double.BYTES);
+		region.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values);
+		region.force();
+	}
+
+	private void writeHeader(FileChannel channel, int columns, long count, double min, double step,
+			int chunkCount, int expressionHash) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(ExpressionTable.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(0, ExpressionTable.MAGIC);
+		header.putInt(8, ExpressionTable.VERSION);
+		header.putInt(12, columns);
+		header.putLong(16, count);
+		header.putDouble(24, min);
+		header.putDouble(32, step);
+		header.putInt(40, _chunkSize);
+		header.putInt(44, chunkCount);
+		header.putInt(48, expressionHash);
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		// Extend the file to its full size, leaving every chunk flag and value at 0
+		final long size = ExpressionTable.dataOffset(chunkCount) + columns * count * Double.BYTES;
+		if (size > ExpressionTable.HEADER_SIZE) channel.write(ByteBuffer.allocate(1), size - 1);
+	}
+
+	private void checkHeader(ByteBuffer header, int columns, long count, double min, double step,
+			int chunkCount, int expressionHash) throws IOException {
+		if (header.getLong(0) != ExpressionTable.MAGIC || header.getInt(8) != ExpressionTable.VERSION) {
+			throw new IOException("File exists and is not an expression table");
+		}
+		if (header.getInt(12) != columns || header.getLong(16) != count || header.getDouble(24) != min
+				|| header.getDouble(32) != step || header.getInt(40) != _chunkSize || header.getInt(44) != chunkCount
+				|| header.getInt(48) != expressionHash) {
+			throw new IOException("File holds a table with different parameters and cannot be resumed");
+		}
+	}
+
+	/**
+	 * Usage: ExpressionTabulator expression min max count file [--derivative]
+	 */
+	public static void main (String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: ExpressionTabulator expression min max count file [--derivative]");
+			System.exit(2);
+		}
+		final Expression expression = new SimpleExpressionParser().parse(args[0]);
+		final boolean withDerivative = args.length > 5 && args[5].equals("--derivative");
+		final long start = System.nanoTime();
+		final int written = new ExpressionTabulator().tabulate(expression, withDerivative,
+			Double.parseDouble(args[1]), Double.parseDouble(args[2]), Long.parseLong(args[3]), Paths.get(args[4]));
+		System.out.printf("Wrote %d chunks in %.3f s%n", written, (System.nanoTime() - start) / 1e9);
+	}
+}
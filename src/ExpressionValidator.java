@@ -0,0 +1,233 @@
+import java.util.*;
+
+/**
+ * A single linear pass over an expression string that splits it into tokens and checks,
+ * before any tree is built, that the brackets match, that the tokens come in an order the
+ * grammar allows, and that every numeric literal is well formed. The first problem found is
+ * reported as an ExpressionParseException holding its offset in the string and what was
+ * expected there. Numbers are converted and variables resolved to their slots during the
+ * same pass, so the tree can be built from the tokens without looking at the string again.
+ *
+ * Numeric literals are decimal: [+-] (digits [. digits] | . digits) [(e|E) [+-] digits] [fFdD],
+ * plus [+-] NaN and [+-] Infinity. A sign is only part of a literal at the start of the expression
+ * or right after '(', the same places the recursive parser used to accept one.
+ */
+public class ExpressionValidator {
+	public static final int NUMBER = 0, VARIABLE = 1, PLUS = 2, MINUS = 3, TIMES = 4, DIVIDE = 5,
+		POWER = 6, LOG = 7, OPEN = 8, CLOSE = 9, END = 10;
+
+	protected static final String OPERAND = "a number, a variable, 'log' or '('";
+	protected static final String OPERATOR = "an operator";
+	protected static final String OPERATOR_OR_CLOSE = "an operator or ')'";
+
+	/**
+	 * The tokens of a valid expression, with a cursor for the parser that consumes them.
+	 * Number tokens hold their value and variable tokens their slot.
+	 */
+	public static class Tokens {
+		private int[] _kinds;
+		private double[] _values;
+		private int _count;
+		private int _position;
+
+		Tokens(int capacity){
+			_kinds = new int[capacity];
+			_values = new double[capacity];
+		}
+
+		void add(int kind, double value){
+			if (_count == _kinds.length) {
+				_kinds = Arrays.copyOf(_kinds, 2 * _count);
+				_values = Arrays.copyOf(_values, 2 * _count);
+			}
+			_kinds[_count] = kind;
+			_values[_count] = value;
+			++_count;
+		}
+
+		/**
+		 * @return the kind of the current token, without consuming it
+		 */
+		public int peek(){
+			return _position < _count ? _kinds[_position] : END;
+		}
+
+		/**
+		 * @return the value (or slot) of the current token, without consuming it
+		 */
+		public double value(){
+			return _values[_position];
+		}
+
+		/**
+		 * Consumes the current token.
+		 * @return its kind
+		 */
+		public int next(){
+			return _kinds[_position++];
+		}
+	}
+
+	/**
+	 * Validates the expression and splits it into tokens.
+	 * Throws a ExpressionParseException at the first offset where the expression is not valid.
+	 * @param str the expression
+	 * @param variables the declared variable names, in slot order
+	 * @return the tokens of the expression
+	 */
+	public static Tokens validate(String str, String[] variables) throws ExpressionParseException {
+		final int len = str.length();
+		final Tokens tokens = new Tokens(Math.max(4, len / 2));
+		// Each entry is whether the open bracket at that depth belongs to a log
+		boolean[] logDepths = new boolean[16];
+		int depth = 0;
+		boolean expectOperand = true;
+		boolean signAllowed = true;
+		// Set after the ')' of log(P): the grammar does not allow log(P) as the base of '^'
+		boolean afterLog = false;
+		boolean nextIsLog = false;
+
+		int i = 0;
+		while (true) {
+			while (i < len && str.charAt(i) <= ' ') ++i;
+			if (i == len) break;
+			final char c = str.charAt(i);
+
+			if (expectOperand) {
+				if (isDigit(c) || c == '.' || (signAllowed && (c == '+' || c == '-'))) {
+					final int end = scanNumber(str, i);
+					tokens.add(NUMBER, Double.parseDouble(str.substring(i, end)));
+					i = end;
+					expectOperand = false;
+				} else if (isIdentifierStart(c)) {
+					int end = i + 1;
+					while (end < len && isIdentifierPart(str.charAt(end))) ++end;
+					final String name = str.substring(i, end);
+					if (name.equals("log")) {
+						tokens.add(LOG, 0);
+						nextIsLog = true;
+						signAllowed = false;
+						i = end;
+						int next = i;
+						while (next < len && str.charAt(next) <= ' ') ++next;
+						if (next == len || str.charAt(next) != '(') throw error(str, next, "'('");
+						continue;
+					} else if (name.equals("NaN") || name.equals("Infinity")) {
+						tokens.add(NUMBER, Double.parseDouble(name));
+					} else {
+						final int slot = slotOf(name, variables);
+						if (slot < 0) {
+							throw new ExpressionParseException("Unknown variable '" + name + "' at offset " + i + ": " + str, i, "a declared variable");
+						}
+						tokens.add(VARIABLE, slot);
+					}
+					i = end;
+					expectOperand = false;
+				} else if (c == '(') {
+					if (depth == logDepths.length) logDepths = Arrays.copyOf(logDepths, 2 * depth);
+					logDepths[depth++] = nextIsLog;
+					nextIsLog = false;
+					tokens.add(OPEN, 0);
+					++i;
+					signAllowed = true;
+					continue;
+				} else {
+					throw error(str, i, OPERAND);
+				}
+				afterLog = false;
+				signAllowed = false;
+			} else {
+				if (c == ')') {
+					if (depth == 0) throw error(str, i, OPERATOR);
+					afterLog = logDepths[--depth];
+					tokens.add(CLOSE, 0);
+					++i;
+					continue;
+				}
+				final int kind = operatorKind(c);
+				if (kind == POWER && afterLog) throw error(str, i, "an operator other than '^' after log(P)");
+				if (kind < 0) throw error(str, i, depth > 0 ? OPERATOR_OR_CLOSE : OPERATOR);
+				tokens.add(kind, 0);
+				++i;
+				expectOperand = true;
+				afterLog = false;
+			}
+		}
+
+		if (expectOperand) throw error(str, len, OPERAND);
+		if (depth > 0) throw error(str, len, "')'");
+		return tokens;
+	}
+
+	/**
+	 * Scans the numeric literal starting at start.
+	 * @return the offset right after the literal
+	 */
+	private static int scanNumber(String str, int start) throws ExpressionParseException {
+		final int len = str.length();
+		int i = start;
+		if (str.charAt(i) == '+' || str.charAt(i) == '-') {
+			++i;
+			for (String name : new String[] { "NaN", "Infinity" }) {
+				final int end = i + name.length();
+				if (str.startsWith(name, i) && (end == len || !isIdentifierPart(str.charAt(end)))) return end;
+			}
+		}
+
+		final int integerStart = i;
+		while (i < len && isDigit(str.charAt(i))) ++i;
+		boolean digits = i > integerStart;
+		if (i < len && str.charAt(i) == '.') {
+			++i;
+			final int fractionStart = i;
+			while (i < len && isDigit(str.charAt(i))) ++i;
+			digits |= i > fractionStart;
+		}
+		if (!digits) throw error(str, i, "a digit");
+
+		if (i < len && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+			++i;
+			if (i < len && (str.charAt(i) == '+' || str.charAt(i) == '-')) ++i;
+			final int exponentStart = i;
+			while (i < len && isDigit(str.charAt(i))) ++i;
+			if (i == exponentStart) throw error(str, i, "a digit");
+		}
+		if (i < len && "fFdD".indexOf(str.charAt(i)) >= 0) ++i;
+		return i;
+	}
+
+	private static ExpressionParseException error(String str, int offset, String expected){
+		final String found = offset < str.length() ? "'" + str.charAt(offset) + "'" : "end of input";
+		return new ExpressionParseException("Expected " + expected + " but found " + found + " at offset " + offset + ": " + str, offset, expected);
+	}
+
+	private static int operatorKind(char c){
+		switch (c) {
+			case '+': return PLUS;
+			case '-': return MINUS;
+			case '*': return TIMES;
+			case '/': return DIVIDE;
+			case '^': return POWER;
+			default: return -1;
+		}
+	}
+
+	private static int slotOf(String name, String[] variables){
+		for (int slot = 0; slot < variables.length; ++slot) {
+			if (name.equals(variables[slot])) return slot;
+		}
+		return -1;
+	}
+
+	private static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifierStart(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isIdentifierPart(char c){
+		return isIdentifierStart(c) || isDigit(c);
+	}
+}
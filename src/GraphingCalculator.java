@@ -17,6 +17,7 @@ import javafx.scene.control.TextField;
 import javafx.scene.input.MouseEvent;
 import javafx.event.EventHandler;
 import javafx.scene.layout.StackPane;
+import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
 
 public class GraphingCalculator extends Application {
@@ -29,7 +30,9 @@ public class GraphingCalculator extends Application {
 	protected static final double MIN_Y = -10, MAX_Y = +10;
 	protected static final double GRID_INTERVAL = 5;
 	protected static final String EXAMPLE_EXPRESSION = "2*x+5*x*x";
+	protected static final double MARKER_RADIUS = 3;
 	protected final ExpressionParser expressionParser = new SimpleExpressionParser();
+	protected final ExpressionSolver expressionSolver = new ExpressionSolver();
 
 	private void graph (LineChart<Number, Number> chart, Expression expression, boolean clear) {
 		final XYChart.Series series = new XYChart.Series();
@@ -43,6 +46,31 @@ public class GraphingCalculator extends Application {
 		chart.getData().addAll(series);
 	}
 
+	/**
+	 * Marks the roots and extrema of the expression on the chart as points, without connecting lines.
+	 */
+	private void markPoints (LineChart<Number, Number> chart, Expression expression) {
+		final XYChart.Series series = new XYChart.Series();
+		for (double x : expressionSolver.findRoots(expression, MIN_X, MAX_X)) {
+			series.getData().add(marker(x, 0));
+		}
+		try {
+			for (double x : expressionSolver.findExtrema(expression, MIN_X, MAX_X)) {
+				series.getData().add(marker(x, expression.evaluate(x)));
+			}
+		} catch (UnsupportedOperationException uoe) {
+			// The expression cannot be differentiated, so only its roots are marked
+		}
+		chart.getData().addAll(series);
+		series.getNode().setStyle("-fx-stroke: transparent");
+	}
+
+	private XYChart.Data marker (double x, double y) {
+		final XYChart.Data data = new XYChart.Data(x, y);
+		data.setNode(new Circle(MARKER_RADIUS));
+		return data;
+	}
+
 	@Override
 	public void start (Stage primaryStage) {
 		primaryStage.setTitle("Graphing Calculator");
@@ -52,6 +80,7 @@ public class GraphingCalculator extends Application {
 		final TextField textField = new TextField(EXAMPLE_EXPRESSION);
 		final Button graphButton = new Button("Graph");
 		final CheckBox diffBox = new CheckBox("Show Derivative");
+		final CheckBox pointsBox = new CheckBox("Mark Roots & Extrema");
 		queryPane.getChildren().add(label);
 		queryPane.getChildren().add(textField);
 
@@ -70,6 +99,9 @@ public class GraphingCalculator extends Application {
 						final Expression derivative = expression.differentiate();
 						graph(chart, derivative, false);
 					}
+					if (pointsBox.isSelected()) {
+						markPoints(chart, expression);
+					}
 				} catch (ExpressionParseException epe) {
 					textField.setStyle("-fx-text-fill: red");
 				} catch (UnsupportedOperationException epe) {
@@ -79,6 +111,7 @@ public class GraphingCalculator extends Application {
 		});
 		queryPane.getChildren().add(graphButton);
 		queryPane.getChildren().add(diffBox);
+		queryPane.getChildren().add(pointsBox);
 
 		textField.setOnKeyPressed(e -> textField.setStyle("-fx-text-fill: black"));
 		
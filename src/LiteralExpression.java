@@ -1,3 +1,5 @@
+import java.util.*;
+
 public class LiteralExpression implements Expression {
     private double _value;
 
@@ -18,11 +20,27 @@ public class LiteralExpression implements Expression {
         return conv;
     }
 
+    public int size(){
+        return 1;
+    }
+
     public double evaluate(double x){
         return _value;
     }
+
+    public double evaluate(double[] env){
+        return _value;
+    }
+
+    public void evaluate(double[][] columns, double[] out){
+        Arrays.fill(out, _value);
+    }
     
     public Expression differentiate(){
         return new LiteralExpression(0);
     }
+
+    public Expression differentiate(int slot){
+        return new LiteralExpression(0);
+    }
 }
@@ -16,6 +16,18 @@ public class OneSidedExpression extends AbstractCompoundExpression implements Ex
         double accu = _evaluateExpressor.signMethod(_leftChild.evaluate(x), 0);
         return accu;
     }
+
+    public double evaluate(double[] env){
+        double accu = _evaluateExpressor.signMethod(_leftChild.evaluate(env), 0);
+        return accu;
+    }
+
+    public void evaluate(double[][] columns, double[] out){
+        _leftChild.evaluate(columns, out);
+        for (int i = 0; i < out.length; ++i){
+            out[i] = _evaluateExpressor.signMethod(out[i], 0);
+        }
+    }
     
 
 
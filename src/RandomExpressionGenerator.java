@@ -0,0 +1,161 @@
+import java.util.*;
+
+/**
+ * Generates random, valid expression strings in SimpleExpressionParser's grammar
+ * with a target number of tree nodes. The same seed and settings always produce
+ * the same expressions.
+ *
+ * Operators are picked by weight. Parentheses are only added where the grammar needs
+ * them, and since they become nodes of the parsed tree they count towards the size.
+ * '^' is always generated as c^E or P^c with a literal c, so every generated expression
+ * can be differentiated. Once maxDepth is reached, only leaves are generated, so a
+ * small maxDepth caps the size as well.
+ */
+public class RandomExpressionGenerator {
+	public static final int PLUS = 0, MINUS = 1, TIMES = 2, DIVIDE = 3, POWER = 4, LOG = 5;
+	public static final double[] DEFAULT_WEIGHTS = { 4, 3, 4, 2, 1, 1 };
+	public static final int DEFAULT_MAX_DEPTH = 64;
+
+	// Precedence levels: what each position in the grammar accepts without parentheses
+	private static final int ADD = 0, MULTI = 1, EXP = 2, PAREN = 3;
+
+	private final Random _random;
+	private final int _maxDepth;
+	private final double[] _weights;
+	private final double _weightSum;
+	private final double _variableProbability;
+	private final double _integerProbability;
+	private final double _maxLiteral;
+
+	public RandomExpressionGenerator(long seed){
+		this(seed, DEFAULT_MAX_DEPTH, DEFAULT_WEIGHTS, 0.5, 0.5, 10);
+	}
+
+	/**
+	 * @param seed the seed of the random sequence
+	 * @param maxDepth the deepest level of the tree at which operators are still generated
+	 * @param weights the relative frequency of +, -, *, /, ^ and log, indexed by PLUS..LOG
+	 * @param variableProbability the probability that a leaf is the variable x rather than a literal
+	 * @param integerProbability the probability that a literal is a whole number
+	 * @param maxLiteral literals are drawn uniformly from [0, maxLiteral]
+	 */
+	public RandomExpressionGenerator(long seed, int maxDepth, double[] weights, double variableProbability,
+			double integerProbability, double maxLiteral){
+		if (weights.length != LOG + 1) throw new IllegalArgumentException("Expected " + (LOG + 1) + " operator weights");
+		_random = new Random(seed);
+		_maxDepth = maxDepth;
+		_weights = weights.clone();
+		double sum = 0;
+		for (double weight : weights) {
+			sum += weight;
+		}
+		_weightSum = sum;
+		_variableProbability = variableProbability;
+		_integerProbability = integerProbability;
+		_maxLiteral = maxLiteral;
+	}
+
+	/**
+	 * Generates an expression whose parsed tree has about the given number of nodes.
+	 * @param nodes the target number of nodes
+	 * @return the expression string
+	 */
+	public String generate(int nodes){
+		final StringBuilder out = new StringBuilder();
+		generate(out, Math.max(1, nodes), 0, ADD);
+		return out.toString();
+	}
+
+	/**
+	 * Appends an expression with about budget nodes that can stand at a position
+	 * of the grammar accepting the given precedence level.
+	 */
+	private void generate(StringBuilder out, int budget, int depth, int level){
+		if (depth >= _maxDepth || _weightSum == 0 || budget < 2) {
+			appendLeaf(out);
+			return;
+		}
+		if (budget == 2) {
+			// Too small for an operator; a parenthesized leaf keeps the size on target
+			out.append('(');
+			appendLeaf(out);
+			out.append(')');
+			return;
+		}
+
+		final int operator = pickOperator();
+		if (operator == LOG) {
+			// log, its parentheses and the inner expression
+			if (level == PAREN) {
+				appendParenthesized(out, budget, depth);
+				return;
+			}
+			out.append("log(");
+			generate(out, budget - 2, depth + 2, ADD);
+			out.append(')');
+			return;
+		}
+
+		final int precedence = operator == POWER ? EXP : operator >= TIMES ? MULTI : ADD;
+		if (precedence < level) {
+			appendParenthesized(out, budget, depth);
+			return;
+		}
+
+		final int children = budget - 1;
+		if (operator == POWER) {
+			if (_random.nextBoolean()) {
+				// c^E: the right side may be another power or log
+				appendPositiveLiteral(out);
+				out.append('^');
+				generate(out, children - 1, depth + 1, EXP);
+			} else {
+				// P^c, with a small whole exponent
+				generate(out, children - 1, depth + 1, PAREN);
+				out.append('^').append(1 + _random.nextInt(3));
+			}
+			return;
+		}
+
+		final int left = Math.max(1, (int) (children * (0.25 + 0.5 * _random.nextDouble())));
+		generate(out, left, depth + 1, precedence);
+		out.append("+-*/".charAt(operator));
+		// The operators are left-associative, so the right operand binds one level tighter
+		generate(out, Math.max(1, children - left), depth + 1, precedence + 1);
+	}
+
+	private void appendParenthesized(StringBuilder out, int budget, int depth){
+		out.append('(');
+		generate(out, budget - 1, depth + 1, ADD);
+		out.append(')');
+	}
+
+	private int pickOperator(){
+		double pick = _random.nextDouble() * _weightSum;
+		for (int operator = 0; operator < LOG; ++operator) {
+			pick -= _weights[operator];
+			if (pick < 0) return operator;
+		}
+		return LOG;
+	}
+
+	private void appendLeaf(StringBuilder out){
+		if (_random.nextDouble() < _variableProbability) {
+			out.append('x');
+		} else {
+			appendLiteral(out);
+		}
+	}
+
+	private void appendLiteral(StringBuilder out){
+		if (_random.nextDouble() < _integerProbability) {
+			out.append((long) (_random.nextDouble() * (_maxLiteral + 1)));
+		} else {
+			out.append(_random.nextDouble() * _maxLiteral);
+		}
+	}
+
+	private void appendPositiveLiteral(StringBuilder out){
+		out.append(0.5 + 1.5 * _random.nextDouble());
+	}
+}
@@ -1,7 +1,11 @@
+import java.util.*;
 import java.util.function.*;
 import java.math.*;
 
 public class SimpleExpressionParser implements ExpressionParser {
+	protected static final String[] DEFAULT_VARIABLES = { "x" };
+	protected static final String VARIABLE_NAME = "[A-Za-z_][A-Za-z_0-9]*";
+	protected static final Set<String> RESERVED_NAMES = new HashSet<String>(Arrays.asList("log", "NaN", "Infinity"));
 
 	/*
 	 * Define different expressions with different sign, evaluation, and differentitations.
@@ -19,7 +23,7 @@ public class SimpleExpressionParser implements ExpressionParser {
 		return new DoubleSidedExpression(leftChild, rightChild, 
 				"+",
 				(a, b) -> a+b, 
-				(f, g) -> AExpression(f.differentiate(), g.differentiate()));
+				(f, g, slot) -> AExpression(f.differentiate(slot), g.differentiate(slot)));
 	}
 
 	/**
@@ -32,7 +36,7 @@ public class SimpleExpressionParser implements ExpressionParser {
 		return new DoubleSidedExpression(leftChild, rightChild, 
 				"-",
 				(a, b) -> a-b, 
-				(f, g) -> SExpression(f.differentiate(), g.differentiate()));
+				(f, g, slot) -> SExpression(f.differentiate(slot), g.differentiate(slot)));
 	}
 			
 	/**
@@ -47,12 +51,12 @@ public class SimpleExpressionParser implements ExpressionParser {
 				"*",
 				(a, b) -> a*b, 
 				new DerivativeExpressor() {
-					public Expression derive (Expression g, Expression h){
+					public Expression derive (Expression g, Expression h, int slot){
 						Expression gCopy = g.deepCopy();
 						Expression hCopy = h.deepCopy();
 
-						Expression leftDiff = MExpression(gCopy, hCopy.differentiate());
-						Expression rightDiff = MExpression(gCopy.differentiate(), hCopy);
+						Expression leftDiff = MExpression(gCopy, hCopy.differentiate(slot));
+						Expression rightDiff = MExpression(gCopy.differentiate(slot), hCopy);
 						return AExpression(leftDiff, rightDiff);
 					}
 				});
@@ -74,11 +78,11 @@ public class SimpleExpressionParser implements ExpressionParser {
 				"/",
 				(a, b) -> a/b, 
 				new DerivativeExpressor() {
-					public Expression derive (Expression g, Expression h){
+					public Expression derive (Expression g, Expression h, int slot){
 						Expression gCopy = g.deepCopy();
 						Expression hCopy = h.deepCopy();
-						Expression gDiff = g.differentiate();
-						Expression hDiff = h.differentiate();
+						Expression gDiff = g.differentiate(slot);
+						Expression hDiff = h.differentiate(slot);
 						Expression hSq = E2Expression(h.deepCopy(), new LiteralExpression(2));
 
 						Expression diff1 = DExpression(gDiff, hCopy);
@@ -100,11 +104,11 @@ public class SimpleExpressionParser implements ExpressionParser {
 		"^",
 		(a, b) -> Math.pow(a, b), 
 		new DerivativeExpressor(){
-			public Expression derive (Expression c, Expression h){
+			public Expression derive (Expression c, Expression h, int slot){
 						Expression cLog = LExpression(c);
 						Expression cCopy = c.deepCopy();
 						Expression hCopy = h.deepCopy();
-						Expression hDiff = h.differentiate();
+						Expression hDiff = h.differentiate(slot);
 						return MExpression(cLog, MExpression(E1Expression(cCopy, hCopy), hDiff));
 					}
 				});
@@ -122,11 +126,11 @@ public class SimpleExpressionParser implements ExpressionParser {
 		"^",
 		(a, b) -> Math.pow(a, b), 
 		new DerivativeExpressor(){
-			public Expression derive (Expression g, Expression c){
+			public Expression derive (Expression g, Expression c, int slot){
 								Expression cCopy = c.deepCopy();
 								Expression gCopy = g.deepCopy();
 								Expression cMinus = new LiteralExpression(c.evaluate(0) - 1);
-								Expression gDiff = g.differentiate();
+								Expression gDiff = g.differentiate(slot);
 								return MExpression(cCopy, MExpression(E2Expression(gCopy, cMinus), gDiff));
 							}
 						});
@@ -136,15 +140,16 @@ public class SimpleExpressionParser implements ExpressionParser {
 	 * Create an Exponential Expression of the type g(x)^h(x), with 
 	 * "^" sign
 	 * evaluation of 2 doubles
-	 * and differentiation = null (cannot be differentiated)
+	 * and differentiation = none (cannot be differentiated); throws an UnsupportedOperationException
+	 * instead of returning null, so that the expressions containing it cannot be differentiated either
 	 */
 	protected DoubleSidedExpression ENullExpression(Expression leftChild, Expression rightChild){
 		return new DoubleSidedExpression(leftChild, rightChild, 
 		"^",
 		(a, b) -> Math.pow(a, b), 
 		new DerivativeExpressor(){
-			public Expression derive (Expression g, Expression c){
-								return null;
+			public Expression derive (Expression g, Expression c, int slot){
+								throw new UnsupportedOperationException("Cannot differentiate g(x)^h(x)");
 							}
 						});
 	}
@@ -160,9 +165,9 @@ public class SimpleExpressionParser implements ExpressionParser {
 		"log",
 		(a, nullValue) -> Math.log(a), 
 		new DerivativeExpressor(){
-			public Expression derive (Expression g, Expression nullExpression){
+			public Expression derive (Expression g, Expression nullExpression, int slot){
 								Expression gCopy = g.deepCopy();
-								Expression gDiff = g.differentiate();
+								Expression gDiff = g.differentiate(slot);
 								return DExpression(gDiff, gCopy);
 							}
 						});
@@ -179,8 +184,8 @@ public class SimpleExpressionParser implements ExpressionParser {
 		"()",
 		(a, nullValue) -> a, 
 		new DerivativeExpressor(){
-			public Expression derive (Expression g, Expression nullExpression){
-								Expression gDiff = g.differentiate();
+			public Expression derive (Expression g, Expression nullExpression, int slot){
+								Expression gDiff = g.differentiate(slot);
 								return PExpression(gDiff);
 							}
 						});
@@ -196,181 +201,109 @@ public class SimpleExpressionParser implements ExpressionParser {
 	 * E -> P^E | P | log(P)
 	 * P -> (S) | L | V
 	 * L -> <float>
-	 * V -> x
+	 * V -> x | <one of the declared variable names>
          * @param str the string to parse into an expression tree
          * @return the Expression object representing the parsed expression tree
          */
 	public Expression parse (String str) throws ExpressionParseException {
-		str = str.replaceAll(" ", "");
-		Expression expression = parseAdd(str);
-		if (expression == null) {
-			throw new ExpressionParseException("Cannot parse expression: " + str);
-		}
+		return parse(str, DEFAULT_VARIABLES);
+	}
 
-		return expression;
+	/**
+	 * Attempts to create an expression tree from the specified String, where the
+	 * expression may use any of the given variable names.
+	 * Each variable is resolved to its slot (its index in variables) at parse time,
+	 * so the resulting expression is evaluated with evaluate(double[] env).
+	 * Throws a ExpressionParseException if the specified string cannot be parsed.
+	 * @param str the string to parse into an expression tree
+	 * @param variables the variable names, in slot order
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	public Expression parse (String str, String... variables) throws ExpressionParseException {
+		checkVariables(variables);
+		// Rejects malformed input in one linear pass, before any part of the tree is built
+		final ExpressionValidator.Tokens tokens = ExpressionValidator.validate(str, variables);
+		return parseAdd(tokens, variables);
 	}
 
-	private int checkParenthesis(char c){
-		if (c == '(') return 1;
-		if (c == ')') return -1;
-		return 0;
+	private void checkVariables(String[] variables){
+		for (int i = 0; i < variables.length; ++i){
+			if (!variables[i].matches(VARIABLE_NAME) || RESERVED_NAMES.contains(variables[i]))
+				throw new IllegalArgumentException("Invalid variable name: " + variables[i]);
+			for (int j = 0; j < i; ++j){
+				if (variables[i].equals(variables[j]))
+					throw new IllegalArgumentException("Duplicate variable name: " + variables[i]);
+			}
+		}
 	}
 
-	//A -> A+M | A-M | M
-	protected Expression parseAdd (String str) throws ExpressionParseException {
-		int len = str.length();
-		if (len == 0) throw new ExpressionParseException("Cannot parse expression");
-		System.out.println("parseAdd, str: " + str);
-		Expression expression;
+	/*
+	 * The methods below build the tree from tokens that ExpressionValidator has already
+	 * checked against the grammar, so they never need to report an error.
+	 */
 
-		// TODO: implement me
-		//Count parenthesis; do not evaluate if +/- is inside a parenthesis
-		int pCount = 0;
-		for (int index = str.length() - 1; index >= 1; --index){
-			pCount += checkParenthesis(str.charAt(index));
-			if (pCount > 0) return null;
-			if (str.charAt(index) == '+' && pCount == 0){
-				return AExpression(parseAdd(str.substring(0, index)), parseMulti(str.substring(index + 1, str.length())));
-			}
-			if (str.charAt(index) == '-' && pCount == 0){
-				return SExpression(parseAdd(str.substring(0, index)), parseMulti(str.substring(index + 1, str.length())));
+	//A -> A+M | A-M | M
+	protected Expression parseAdd (ExpressionValidator.Tokens tokens, String[] variables) {
+		Expression expression = parseMulti(tokens, variables);
+		while (tokens.peek() == ExpressionValidator.PLUS || tokens.peek() == ExpressionValidator.MINUS) {
+			if (tokens.next() == ExpressionValidator.PLUS) {
+				expression = AExpression(expression, parseMulti(tokens, variables));
+			} else {
+				expression = SExpression(expression, parseMulti(tokens, variables));
 			}
 		}
-		return parseMulti(str);
+		return expression;
 	}
 
 	//M -> M*E | M/E | E
-	protected Expression parseMulti (String str) throws ExpressionParseException {
-		int len = str.length();
-		if (len == 0) throw new ExpressionParseException("Cannot parse expression");
-		System.out.println("parseMulti, str: " + str);
-		Expression expression;
-
-		// TODO: implement me
-		int pCount = 0;
-		for (int index = str.length() - 1; index >= 0; --index){
-			pCount += checkParenthesis(str.charAt(index));
-			if (pCount > 0) return null;
-			if (str.charAt(index) == '*' && pCount == 0){
-				return MExpression(parseMulti(str.substring(0, index)), parseExp(str.substring(index + 1, str.length())));
-			}
-			if (str.charAt(index) == '/' && pCount == 0){
-				return DExpression(parseMulti(str.substring(0, index)), parseExp(str.substring(index + 1, str.length())));
+	protected Expression parseMulti (ExpressionValidator.Tokens tokens, String[] variables) {
+		Expression expression = parseExp(tokens, variables);
+		while (tokens.peek() == ExpressionValidator.TIMES || tokens.peek() == ExpressionValidator.DIVIDE) {
+			if (tokens.next() == ExpressionValidator.TIMES) {
+				expression = MExpression(expression, parseExp(tokens, variables));
+			} else {
+				expression = DExpression(expression, parseExp(tokens, variables));
 			}
 		}
-		if (pCount != 0) return null;
-		return parseExp(str);
+		return expression;
 	}
 
-	//E -> log(P) | P^E | P | 
-	protected Expression parseExp (String str) throws ExpressionParseException {
-		int len = str.length();
-		if (len == 0) throw new ExpressionParseException("Cannot parse expression");
-		System.out.println("parseExp, str: " + str);
-		Expression expression;
-
+	//E -> log(P) | P^E | P
+	protected Expression parseExp (ExpressionValidator.Tokens tokens, String[] variables) {
 		//log(P)
-		if (len > 5 && (str.substring(0, 4) + str.charAt(len - 1)).equals("log()")) {
-			System.out.println("this is log h");
-			return LExpression(parseParen(str.substring(3, len)));
+		if (tokens.peek() == ExpressionValidator.LOG) {
+			tokens.next();
+			return LExpression(parseParen(tokens, variables));
 		}
 
 		//P^E
-		int pCount = 0;
-		for (int index = 0; index < len; ++index){
-			pCount += checkParenthesis(str.charAt(index));
-			if (pCount < 0) return null;
-
-			if (str.charAt(index) == '^' && pCount == 0){
-				
-				Expression left = parseParen(str.substring(0, index));
-				Expression right = parseExp(str.substring(index + 1, str.length()));
-
-				if (left instanceof LiteralExpression) return E1Expression(left, right);
-				if (right instanceof LiteralExpression) return E2Expression(left, right);
-				return ENullExpression(left, right);
-			}
+		final Expression left = parseParen(tokens, variables);
+		if (tokens.peek() == ExpressionValidator.POWER) {
+			tokens.next();
+			final Expression right = parseExp(tokens, variables);
+
+			if (left instanceof LiteralExpression) return E1Expression(left, right);
+			if (right instanceof LiteralExpression) return E2Expression(left, right);
+			return ENullExpression(left, right);
 		}
-		return parseParen(str);
+		return left;
 	}
 
 	//P -> (S) | L | V
-	protected Expression parseParen (String str) throws ExpressionParseException {
-		int len = str.length();
-		if (len == 0) throw new ExpressionParseException("Cannot parse expression");
-		System.out.println("parseParen, str: " + str + "bbb");
-		Expression expression;
-
-
-		if (str.charAt(0) == '(' && str.charAt(len - 1) == ')') 
-			return PExpression(parseAdd(str.substring(1, len - 1)));
-		
-		Expression L = parseLiteralExpression(str);
-		if (L != null) return L;
-
-		Expression V = parseVariableExpression(str);
-		return V;
-	}
-
 	//L -> <float>
-	//V -> x
-	// TODO: once you implement a VariableExpression class, fix the return-type below.
-	protected VariableExpression parseVariableExpression (String str) {
-			if (str.equals("x")) {
-					// TODO implement the VariableExpression class and uncomment line below
-					return new VariableExpression();
-			}
-			return null;
-	}
-
-
-        // TODO: once you implement a LiteralExpression class, fix the return-type below.
-	protected LiteralExpression parseLiteralExpression (String str) {
-		// From https://stackoverflow.com/questions/3543729/how-to-check-that-a-string-is-parseable-to-a-double/22936891:
-		final String Digits     = "(\\p{Digit}+)";
-		final String HexDigits  = "(\\p{XDigit}+)";
-		// an exponent is 'e' or 'E' followed by an optionally 
-		// signed decimal integer.
-		final String Exp        = "[eE][+-]?"+Digits;
-		final String fpRegex    =
-		    ("[\\x00-\\x20]*"+ // Optional leading "whitespace"
-		    "[+-]?(" +         // Optional sign character
-		    "NaN|" +           // "NaN" string
-		    "Infinity|" +      // "Infinity" string
-
-		    // A decimal floating-point string representing a finite positive
-		    // number without a leading sign has at most five basic pieces:
-		    // Digits . Digits ExponentPart FloatTypeSuffix
-		    // 
-		    // Since this method allows integer-only strings as input
-		    // in addition to strings of floating-point literals, the
-		    // two sub-patterns below are simplifications of the grammar
-		    // productions from the Java Language Specification, 2nd 
-		    // edition, section 3.10.2.
-
-		    // Digits ._opt Digits_opt ExponentPart_opt FloatTypeSuffix_opt
-		    "((("+Digits+"(\\.)?("+Digits+"?)("+Exp+")?)|"+
-
-		    // . Digits ExponentPart_opt FloatTypeSuffix_opt
-		    "(\\.("+Digits+")("+Exp+")?)|"+
-
-		    // Hexadecimal strings
-		    "((" +
-		    // 0[xX] HexDigits ._opt BinaryExponent FloatTypeSuffix_opt
-		    "(0[xX]" + HexDigits + "(\\.)?)|" +
-
-		    // 0[xX] HexDigits_opt . HexDigits BinaryExponent FloatTypeSuffix_opt
-		    "(0[xX]" + HexDigits + "?(\\.)" + HexDigits + ")" +
-
-		    ")[pP][+-]?" + Digits + "))" +
-		    "[fFdD]?))" +
-		    "[\\x00-\\x20]*");// Optional trailing "whitespace"
-
-		if (str.matches(fpRegex)) {
-			// TODO: Once you implement LiteralExpression, replace the line above with the line below:
-			return new LiteralExpression(Double.valueOf(str));
+	//V -> x | <one of the declared variable names>
+	protected Expression parseParen (ExpressionValidator.Tokens tokens, String[] variables) {
+		final double value = tokens.value();
+		switch (tokens.next()) {
+			case ExpressionValidator.OPEN:
+				final Expression expression = PExpression(parseAdd(tokens, variables));
+				tokens.next(); // the matching ')'
+				return expression;
+			case ExpressionValidator.NUMBER:
+				return new LiteralExpression(value);
+			default:
+				return new VariableExpression(variables[(int) value], (int) value);
 		}
-		return null;
 	}
 
 	public static void main (String[] args) throws ExpressionParseException {
@@ -1,6 +1,23 @@
+/*
+ * A named variable. The parser resolves the name to a fixed slot index,
+ * so evaluation only has to index into the environment array.
+ * The plain VariableExpression() is the variable x in slot 0.
+ */
 public class VariableExpression implements Expression {
+    private String _name;
+    private int _slot;
+
+    public VariableExpression(){
+        this("x", 0);
+    }
+
+    public VariableExpression(String name, int slot){
+        _name = name;
+        _slot = slot;
+    }
+
     public Expression deepCopy(){
-        return new VariableExpression();
+        return new VariableExpression(_name, _slot);
     }
 
     public String convertToString(int indentLevel){
@@ -8,15 +25,32 @@ public class VariableExpression implements Expression {
         for (int i = 0; i<indentLevel; ++i){
             conv += "\t";
         }
-        conv +="x" + "\n";
+        conv += _name + "\n";
         return conv;
     }
 
+    public int size(){
+        return 1;
+    }
+
     public double evaluate(double x){
+        if (_slot != 0) throw new UnsupportedOperationException("Variable " + _name + " needs an environment to be evaluated");
         return x;
     }
-    
+
+    public double evaluate(double[] env){
+        return env[_slot];
+    }
+
+    public void evaluate(double[][] columns, double[] out){
+        System.arraycopy(columns[_slot], 0, out, 0, out.length);
+    }
+
     public Expression differentiate(){
-        return new LiteralExpression(1);
+        return differentiate(0);
+    }
+
+    public Expression differentiate(int slot){
+        return new LiteralExpression(slot == _slot ? 1 : 0);
     }
 }